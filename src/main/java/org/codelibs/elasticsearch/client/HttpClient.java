@@ -22,18 +22,28 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.codelibs.curl.Curl;
+import org.codelibs.curl.Curl.Method;
 import org.codelibs.curl.CurlRequest;
 import org.codelibs.elasticsearch.client.action.HttpAliasesExistAction;
 import org.codelibs.elasticsearch.client.action.HttpAnalyzeAction;
@@ -44,6 +54,7 @@ import org.codelibs.elasticsearch.client.action.HttpClearScrollAction;
 import org.codelibs.elasticsearch.client.action.HttpCloseIndexAction;
 import org.codelibs.elasticsearch.client.action.HttpClusterHealthAction;
 import org.codelibs.elasticsearch.client.action.HttpClusterRerouteAction;
+import org.codelibs.elasticsearch.client.action.HttpClusterSearchShardsAction;
 import org.codelibs.elasticsearch.client.action.HttpClusterUpdateSettingsAction;
 import org.codelibs.elasticsearch.client.action.HttpCreateIndexAction;
 import org.codelibs.elasticsearch.client.action.HttpCreateSnapshotAction;
@@ -97,6 +108,19 @@ import org.codelibs.elasticsearch.client.action.HttpUpdateAction;
 import org.codelibs.elasticsearch.client.action.HttpUpdateSettingsAction;
 import org.codelibs.elasticsearch.client.action.HttpValidateQueryAction;
 import org.codelibs.elasticsearch.client.action.HttpVerifyRepositoryAction;
+import org.codelibs.elasticsearch.client.bulk.BulkShardRouter;
+import org.codelibs.elasticsearch.client.bulk.RetryBudget;
+import org.codelibs.elasticsearch.client.curl.HttpCurlRequest;
+import org.codelibs.elasticsearch.client.host.Host;
+import org.codelibs.elasticsearch.client.host.HostSelector;
+import org.codelibs.elasticsearch.client.host.HostSniffer;
+import org.codelibs.elasticsearch.client.host.LeastActiveHostSelector;
+import org.codelibs.elasticsearch.client.host.RoundRobinHostSelector;
+import org.codelibs.elasticsearch.client.host.WeightedHostSelector;
+import org.codelibs.elasticsearch.client.io.SourceDecoder;
+import org.codelibs.elasticsearch.client.search.DecodedHit;
+import org.codelibs.elasticsearch.client.transport.CurlTransport;
+import org.codelibs.elasticsearch.client.transport.HttpTransport;
 import org.codelibs.elasticsearch.client.util.UrlUtils;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.ActionListener;
@@ -130,6 +154,9 @@ import org.elasticsearch.action.admin.cluster.reroute.ClusterRerouteRequest;
 import org.elasticsearch.action.admin.cluster.settings.ClusterUpdateSettingsAction;
 import org.elasticsearch.action.admin.cluster.settings.ClusterUpdateSettingsRequest;
 import org.elasticsearch.action.admin.cluster.settings.ClusterUpdateSettingsResponse;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsAction;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsRequest;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsResponse;
 import org.elasticsearch.action.admin.cluster.snapshots.create.CreateSnapshotAction;
 import org.elasticsearch.action.admin.cluster.snapshots.create.CreateSnapshotRequest;
 import org.elasticsearch.action.admin.cluster.snapshots.create.CreateSnapshotResponse;
@@ -275,8 +302,10 @@ import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.support.AbstractClient;
 import org.elasticsearch.common.ParseField;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.ContextParser;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.plugins.spi.NamedXContentProvider;
 import org.elasticsearch.search.aggregations.Aggregation;
 import org.elasticsearch.search.aggregations.bucket.adjacency.AdjacencyMatrixAggregationBuilder;
@@ -377,32 +406,60 @@ public class HttpClient extends AbstractClient {
 
     protected static final Function<String, CurlRequest> HEAD = Curl::head;
 
-    protected String[] hosts;
+    protected volatile List<Host> hosts;
+
+    protected final Map<String, Host> nodeHosts = new ConcurrentHashMap<>();
+
+    protected final HostSelector hostSelector;
+
+    protected final long deadHostInitialBackoff;
+
+    protected final long deadHostMaxBackoff;
 
     protected final Map<ActionType<?>, BiConsumer<ActionRequest, ActionListener<?>>> actions = new HashMap<>();
 
     protected final NamedXContentRegistry namedXContentRegistry;
 
-    protected final ForkJoinPool threadPool;
+    protected final ExecutorService threadPool;
 
     protected final String basicAuth;
 
     protected final boolean compression;
 
+    protected final ContentType wireFormat;
+
     protected final List<UnaryOperator<CurlRequest>> requestBuilderList = new ArrayList<>();
 
+    protected ScheduledExecutorService scheduler;
+
+    protected HostSniffer hostSniffer;
+
+    protected final HttpTransport transport;
+
+    protected BulkShardRouter bulkShardRouter;
+
+    protected final RetryBudget bulkRetryBudget;
+
     public enum ContentType {
-        JSON("application/json"), X_NDJSON("application/x-ndjson");
+        JSON("application/json", XContentType.JSON), X_NDJSON("application/x-ndjson", XContentType.JSON), SMILE("application/smile",
+                XContentType.SMILE), CBOR("application/cbor", XContentType.CBOR);
 
         private final String value;
 
-        private ContentType(final String value) {
+        private final XContentType xContentType;
+
+        private ContentType(final String value, final XContentType xContentType) {
             this.value = value;
+            this.xContentType = xContentType;
         }
 
         public String getString() {
             return this.value;
         }
+
+        public XContentType getXContentType() {
+            return xContentType;
+        }
     }
 
     public HttpClient(final Settings settings, final ThreadPool threadPool) {
@@ -411,19 +468,25 @@ public class HttpClient extends AbstractClient {
 
     public HttpClient(final Settings settings, final ThreadPool threadPool, final List<NamedXContentRegistry.Entry> namedXContentEntries) {
         super(settings, threadPool);
-        hosts = settings.getAsList("http.hosts").stream().map(s -> {
-            if (!s.startsWith("http:") && !s.startsWith("https:")) {
-                return "http://" + s;
-            }
-            return s;
-        }).toArray(n -> new String[n]);
-        if (hosts.length == 0) {
+        hosts = createHosts(settings);
+        if (hosts.isEmpty()) {
             throw new ElasticsearchException("http.hosts is empty.");
         }
+        hostSelector = createHostSelector(settings);
+        deadHostInitialBackoff = settings.getAsTime("http.dead_host.initial_backoff", TimeValue.timeValueMinutes(1)).nanos();
+        deadHostMaxBackoff = settings.getAsTime("http.dead_host.max_backoff", TimeValue.timeValueMinutes(30)).nanos();
 
         compression = settings.getAsBoolean("http.compression", true);
+        wireFormat = createWireFormat(settings);
         basicAuth = createBasicAuthentication(settings);
         this.threadPool = createThreadPool(settings);
+        transport = createTransport(settings);
+
+        bulkRetryBudget = new RetryBudget(settings);
+
+        if (settings.getAsBoolean("http.bulk.shard_routing.enabled", false)) {
+            bulkShardRouter = new BulkShardRouter(this, settings);
+        }
 
         namedXContentRegistry =
                 new NamedXContentRegistry(Stream
@@ -814,6 +877,13 @@ public class HttpClient extends AbstractClient {
                 new HttpRestoreSnapshotAction(this, RestoreSnapshotAction.INSTANCE).execute((RestoreSnapshotRequest) request,
                         actionListener);
             });
+        actions.put(ClusterSearchShardsAction.INSTANCE, (request, listener) -> {
+            // org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsAction
+                @SuppressWarnings("unchecked")
+                final ActionListener<ClusterSearchShardsResponse> actionListener = (ActionListener<ClusterSearchShardsResponse>) listener;
+                new HttpClusterSearchShardsAction(this, ClusterSearchShardsAction.INSTANCE).execute((ClusterSearchShardsRequest) request,
+                        actionListener);
+            });
         actions.put(NodesStatsAction.INSTANCE, (request, listener) -> {
             // org.elasticsearch.action.admin.cluster.node.stats.NodesStatsAction
                 @SuppressWarnings("unchecked")
@@ -828,7 +898,6 @@ public class HttpClient extends AbstractClient {
         // org.elasticsearch.action.admin.cluster.node.usage.NodesUsageAction
         // org.elasticsearch.action.admin.cluster.node.info.NodesInfoAction
         // org.elasticsearch.action.admin.cluster.remote.RemoteInfoAction
-        // org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsAction
         // org.elasticsearch.action.admin.cluster.state.ClusterStateAction
         // org.elasticsearch.action.admin.cluster.stats.ClusterStatsAction
         // org.elasticsearch.action.admin.indices.recovery.RecoveryAction
@@ -841,6 +910,11 @@ public class HttpClient extends AbstractClient {
         // org.elasticsearch.action.termvectors.MultiTermVectorsAction
         // org.elasticsearch.action.termvectors.TermVectorsAction
 
+        // the first sniff runs right away, so the client must be fully built
+        if (settings.getAsBoolean("http.sniffer.enabled", false)) {
+            hostSniffer = new HostSniffer(this, settings, hosts.get(0).getUrl().startsWith("https:") ? "https" : "http");
+            hostSniffer.start(getScheduler());
+        }
     }
 
     protected String createBasicAuthentication(final Settings settings) {
@@ -855,6 +929,15 @@ public class HttpClient extends AbstractClient {
 
     @Override
     public void close() {
+        if (hostSniffer != null) {
+            hostSniffer.close();
+        }
+        transport.close();
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+        }
         if (!threadPool.isShutdown()) {
             try {
                 threadPool.shutdown();
@@ -877,28 +960,219 @@ public class HttpClient extends AbstractClient {
         httpAction.accept(request, listener);
     }
 
+    protected List<Host> createHosts(final Settings settings) {
+        final List<String> urls = settings.getAsList("http.hosts").stream().map(s -> {
+            if (!s.startsWith("http:") && !s.startsWith("https:")) {
+                return "http://" + s;
+            }
+            return s;
+        }).collect(toList());
+        final List<String> weights = settings.getAsList("http.host_weights");
+        if (!weights.isEmpty() && weights.size() != urls.size()) {
+            throw new ElasticsearchException("http.host_weights does not match http.hosts: " + weights);
+        }
+        final List<Host> list = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            if (weights.isEmpty()) {
+                list.add(new Host(urls.get(i)));
+            } else {
+                list.add(new Host(urls.get(i), Integer.parseInt(weights.get(i).trim())));
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    protected HostSelector createHostSelector(final Settings settings) {
+        final String type = settings.get("http.host_selector", "round_robin");
+        switch (type) {
+        case "round_robin":
+            return new RoundRobinHostSelector();
+        case "least_active":
+            return new LeastActiveHostSelector();
+        case "weighted":
+            return new WeightedHostSelector();
+        default:
+            throw new ElasticsearchException("Unknown http.host_selector: " + type);
+        }
+    }
+
+    protected Host selectHost() {
+        final Host host = selectHost(Collections.emptySet());
+        if (host == null) {
+            throw new ElasticsearchException("No available hosts: " + hosts);
+        }
+        return host;
+    }
+
+    public Host selectHost(final Set<Host> excludedHosts) {
+        final List<Host> currentHosts = hosts;
+        if (excludedHosts.isEmpty() && currentHosts.stream().allMatch(h -> h.getFailures() == 0)) {
+            return hostSelector.select(currentHosts);
+        }
+        final long now = System.nanoTime();
+        for (final Host host : currentHosts) {
+            // a dead host whose backoff has expired takes a single probe request
+            if (!excludedHosts.contains(host) && host.tryProbe(now, deadHostInitialBackoff)) {
+                return host;
+            }
+        }
+        final List<Host> aliveHosts =
+                currentHosts.stream().filter(h -> !excludedHosts.contains(h) && h.getFailures() == 0).collect(Collectors.toList());
+        if (!aliveHosts.isEmpty()) {
+            return hostSelector.select(aliveHosts);
+        }
+        // all hosts are dead, so probe the one that has waited the longest
+        return currentHosts.stream().filter(h -> !excludedHosts.contains(h))
+                .min((h1, h2) -> Long.compare(h1.getDeadUntil() - now, h2.getDeadUntil() - now)).orElse(null);
+    }
+
+    public List<Host> getHosts() {
+        return hosts;
+    }
+
+    public Host findHost(final String url) {
+        for (final Host host : hosts) {
+            if (host.getUrl().equals(url)) {
+                return host;
+            }
+        }
+        // node-direct hosts keep their dead state across requests
+        return nodeHosts.computeIfAbsent(url, Host::new);
+    }
+
+    // a host is used while it is alive, or as the single probe once its backoff has expired
+    public boolean isAvailable(final Host host) {
+        return host.getFailures() == 0 || host.tryProbe(System.nanoTime(), deadHostInitialBackoff);
+    }
+
+    // hits are decoded into the target type from the response bytes and passed to the consumer
+    public <T> void search(final SearchRequest request, final SourceDecoder<T> decoder, final Consumer<DecodedHit<T>> hitConsumer,
+            final ActionListener<SearchResponse> listener) {
+        new HttpSearchAction(this, SearchAction.INSTANCE).execute(request, decoder, hitConsumer, listener);
+    }
+
+    // the listener receives null if the document does not exist
+    public <T> void get(final GetRequest request, final SourceDecoder<T> decoder, final ActionListener<T> listener) {
+        new HttpGetAction(this, GetAction.INSTANCE).execute(request, decoder, listener);
+    }
+
+    public BulkShardRouter getBulkShardRouter() {
+        return bulkShardRouter;
+    }
+
+    public RetryBudget getBulkRetryBudget() {
+        return bulkRetryBudget;
+    }
+
+    public void updateHosts(final List<String> urls) {
+        if (urls.isEmpty()) {
+            throw new ElasticsearchException("hosts is empty.");
+        }
+        final Map<String, Host> hostMap = hosts.stream().collect(Collectors.toMap(Host::getUrl, Function.identity(), (h1, h2) -> h1));
+        final List<Host> list = new ArrayList<>(urls.size());
+        for (final String url : urls) {
+            list.add(hostMap.getOrDefault(url, new Host(url)));
+        }
+        hosts = Collections.unmodifiableList(list);
+    }
+
+    public synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "eshttp-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    public void onHostFailure(final Host host) {
+        final long backoff = host.markDead(System.nanoTime(), deadHostInitialBackoff, deadHostMaxBackoff);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Marked {} as dead for {}ms.", host.getUrl(), TimeUnit.NANOSECONDS.toMillis(backoff));
+        }
+    }
+
+    public void onHostSuccess(final Host host) {
+        if (host.markAlive() && logger.isDebugEnabled()) {
+            logger.debug("Resurrected {}.", host.getUrl());
+        }
+    }
+
+    protected HttpTransport createTransport(final Settings settings) {
+        final String type = settings.get("http.transport.type", "curl");
+        switch (type) {
+        case "curl":
+            return new CurlTransport(threadPool);
+        case "jdk":
+            return createTransport("org.codelibs.elasticsearch.client.transport.JdkHttpTransport", settings);
+        default:
+            return createTransport(type, settings);
+        }
+    }
+
+    protected HttpTransport createTransport(final String className, final Settings settings) {
+        try {
+            final Class<?> clazz = Class.forName(className);
+            return (HttpTransport) clazz.getConstructor(HttpClient.class, Settings.class).newInstance(this, settings);
+        } catch (final ClassNotFoundException | NoClassDefFoundError e) {
+            throw new ElasticsearchException("Transport " + className + " is not available (the jdk transport requires Java 11+).", e);
+        } catch (final Exception e) {
+            throw new ElasticsearchException("Failed to create " + className, e);
+        }
+    }
+
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    public Executor getExecutor() {
+        return threadPool;
+    }
+
     protected String getHost() {
-        return hosts[0];
+        return selectHost().getUrl();
     }
 
+    @Deprecated
     public CurlRequest getCurlRequest(final Function<String, CurlRequest> method, final String path, final String... indices) {
         return getCurlRequest(method, ContentType.JSON, path, indices);
     }
 
+    // the function only tells the method, so use the Method variants instead
+    @Deprecated
     public CurlRequest getCurlRequest(final Function<String, CurlRequest> method, final ContentType contentType, final String path,
             final String... indices) {
+        return getCurlRequest(method.apply(path).method(), contentType, path, indices);
+    }
+
+    public CurlRequest getCurlRequest(final Method method, final String path, final String... indices) {
+        return getCurlRequest(method, ContentType.JSON, path, indices);
+    }
+
+    public CurlRequest getCurlRequest(final Method method, final ContentType contentType, final String path, final String... indices) {
+        return getCurlRequest(selectHost(), method, contentType, path, indices);
+    }
+
+    public CurlRequest getCurlRequest(final Host host, final Method method, final ContentType contentType, final String path,
+            final String... indices) {
         final StringBuilder buf = new StringBuilder(100);
-        buf.append(getHost());
         if (indices.length > 0) {
             buf.append('/').append(UrlUtils.joinAndEncode(",", indices));
         }
         if (path != null) {
             buf.append(path);
         }
-        CurlRequest request = method.apply(buf.toString()).header("Content-Type", contentType.getString()).threadPool(threadPool);
+        final String pathWithIndices = buf.toString();
+        CurlRequest request = new HttpCurlRequest(this, method, host, pathWithIndices).header("Content-Type", contentType.getString());
         if (basicAuth != null) {
             request = request.header("Authorization", basicAuth);
         }
+        if (wireFormat != ContentType.JSON) {
+            // responses are negotiated for every action, and parsed by their Content-Type
+            request = request.header("Accept", wireFormat.getString());
+        }
         if (compression) {
             request.compression("gzip");
         }
@@ -908,7 +1182,49 @@ public class HttpClient extends AbstractClient {
         return request;
     }
 
-    protected ForkJoinPool createThreadPool(final Settings settings) {
+    protected ContentType createWireFormat(final Settings settings) {
+        final String type = settings.get("http.content_type", "json");
+        switch (type.toLowerCase(Locale.ROOT)) {
+        case "json":
+            return ContentType.JSON;
+        case "smile":
+            return ContentType.SMILE;
+        case "cbor":
+            return ContentType.CBOR;
+        default:
+            throw new ElasticsearchException("Unknown http.content_type: " + type);
+        }
+    }
+
+    protected ExecutorService createThreadPool(final Settings settings) {
+        final String type = settings.get("thread_pool.http.type", "fork_join");
+        switch (type) {
+        case "fork_join":
+            return createForkJoinPool(settings);
+        case "virtual":
+            return createVirtualThreadExecutor();
+        default:
+            throw new ElasticsearchException("Unknown thread_pool.http.type: " + type);
+        }
+    }
+
+    protected ExecutorService createVirtualThreadExecutor() {
+        // Thread.ofVirtual().name("eshttp-", 0).factory() on Java 21+
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            final Object namedBuilder = ofVirtualClass.getMethod("name", String.class, long.class).invoke(builder, "eshttp-", 0L);
+            final ThreadFactory threadFactory =
+                    (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(namedBuilder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+        } catch (final NoSuchMethodException | ClassNotFoundException e) {
+            throw new ElasticsearchException("Virtual threads require Java 21+.", e);
+        } catch (final Exception e) {
+            throw new ElasticsearchException("Failed to create a virtual thread executor.", e);
+        }
+    }
+
+    protected ForkJoinPool createForkJoinPool(final Settings settings) {
         int parallelism =
                 settings.getAsInt("thread_pool.http.size", settings.getAsInt("processors", Runtime.getRuntime().availableProcessors()));
         boolean asyncMode = settings.getAsBoolean("thread_pool.http.async", false);
@@ -983,6 +1299,11 @@ public class HttpClient extends AbstractClient {
         return entries;
     }
 
+    // the format of request and response bodies
+    public ContentType getWireFormat() {
+        return wireFormat;
+    }
+
     public NamedXContentRegistry getNamedXContentRegistry() {
         return namedXContentRegistry;
     }
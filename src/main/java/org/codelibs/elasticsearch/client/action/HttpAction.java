@@ -15,24 +15,42 @@
  */
 package org.codelibs.elasticsearch.client.action;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.function.Function;
 
 import org.codelibs.curl.Curl;
+import org.codelibs.curl.Curl.Method;
 import org.codelibs.curl.CurlRequest;
 import org.codelibs.curl.CurlResponse;
 import org.codelibs.elasticsearch.client.HttpClient;
+import org.codelibs.elasticsearch.client.io.LazySourceParser;
+import org.codelibs.elasticsearch.client.io.SourceDecoder;
 import org.codelibs.elasticsearch.client.io.stream.ByteArrayStreamOutput;
+import org.codelibs.elasticsearch.client.io.stream.NoCloseOutputStream;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.ElasticsearchStatusException;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.support.ActiveShardCount;
+import org.elasticsearch.action.support.replication.ReplicationResponse;
+import org.elasticsearch.action.support.replication.ReplicationResponse.ShardInfo;
 import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.Streams;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.LoggingDeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestStatus;
 
@@ -106,16 +124,44 @@ public class HttpAction {
 
     protected static final ParseField DELAYED_FIELD = new ParseField("delayed");
 
+    @Deprecated
     protected static final Function<String, CurlRequest> GET = Curl::get;
 
+    @Deprecated
     protected static final Function<String, CurlRequest> POST = Curl::post;
 
+    @Deprecated
     protected static final Function<String, CurlRequest> PUT = Curl::put;
 
+    @Deprecated
     protected static final Function<String, CurlRequest> DELETE = Curl::delete;
 
+    @Deprecated
     protected static final Function<String, CurlRequest> HEAD = Curl::head;
 
+    // passed to getCurlRequest without building a request first
+    protected static final Method GET_METHOD = Method.GET;
+
+    protected static final Method POST_METHOD = Method.POST;
+
+    protected static final Method PUT_METHOD = Method.PUT;
+
+    protected static final Method DELETE_METHOD = Method.DELETE;
+
+    protected static final Method HEAD_METHOD = Method.HEAD;
+
+    // response projections used with http.response_projection
+    // SearchResponse requires the shard counts
+    protected static final String SEARCH_FILTER_PATH = "_scroll_id,took,timed_out,terminated_early,num_reduce_phases,_shards,"
+            + "_clusters,hits.total,hits.max_score,hits.hits._id,hits.hits._score,hits.hits._source,"
+            + "hits.hits._version,hits.hits._seq_no,hits.hits._primary_term,hits.hits._nested,hits.hits.sort,hits.hits.fields,"
+            + "hits.hits.highlight,hits.hits.inner_hits,hits.hits.matched_queries,hits.hits._explanation,aggregations,suggest,profile";
+
+    protected static final String DOC_WRITE_FILTER_PATH = "_index,_type,_id,_version,result,forced_refresh,get";
+
+    protected static final String BULK_FILTER_PATH = "took,errors,items.*._index,items.*._type,items.*._id,items.*._version,"
+            + "items.*.result,items.*.status,items.*.error,items.*.forced_refresh,items.*.get";
+
     protected final HttpClient client;
 
     public HttpAction(final HttpClient client) {
@@ -132,6 +178,55 @@ public class HttpAction {
         return xContent.createParser(client.getNamedXContentRegistry(), LoggingDeprecationHandler.INSTANCE, response.getContentAsStream());
     }
 
+    // http.filter_path.<name> overrides the default projection
+    protected CurlRequest addFilterPath(final CurlRequest curlRequest, final String name, final String defaultFilterPath) {
+        final Settings settings = client.settings();
+        final String filterPath =
+                settings.get("http.filter_path." + name, settings.getAsBoolean("http.response_projection", false) ? defaultFilterPath
+                        : null);
+        if (filterPath != null && !filterPath.isEmpty()) {
+            curlRequest.param("filter_path", filterPath);
+        }
+        return curlRequest;
+    }
+
+    // _shards is not in projected responses
+    protected <T extends ReplicationResponse> T ensureShardInfo(final T response) {
+        if (response != null && response.getShardInfo() == null) {
+            response.setShardInfo(new ShardInfo());
+        }
+        return response;
+    }
+
+    // the decoder reads the source directly from its bytes, without building a map
+    protected <T> T decodeSource(final BytesReference source, final SourceDecoder<T> decoder) {
+        if (source == null) {
+            return null;
+        }
+        // responses, and so their sources, are in the wire format
+        final XContentType sourceType = client.getWireFormat().getXContentType();
+        try (final XContentParser parser =
+                XContentHelper.createParser(client.getNamedXContentRegistry(), LoggingDeprecationHandler.INSTANCE, source, sourceType)) {
+            parser.nextToken();
+            return decoder.decode(parser);
+        } catch (final IOException e) {
+            throw new ElasticsearchException("Failed to decode the source.", e);
+        }
+    }
+
+    // returns null if the response is not JSON
+    protected LazySourceParser createLazySourceParser(final CurlResponse response) throws IOException {
+        final String contentType = response.getHeaderValue("Content-Type");
+        if (contentType != null && XContentType.fromMediaTypeOrFormat(contentType) != XContentType.JSON) {
+            return null;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final InputStream in = response.getContentAsStream()) {
+            Streams.copy(in, out);
+        }
+        return new LazySourceParser(client.getNamedXContentRegistry(), out.toByteArray());
+    }
+
     protected ElasticsearchStatusException toElasticsearchException(final CurlResponse response, final Throwable t) {
         ElasticsearchStatusException elasticsearchException;
         try (final XContentParser parser = createParser(response)) {
@@ -155,6 +250,58 @@ public class HttpAction {
         }
     }
 
+    protected void writeJsonSource(final BytesReference source, final XContentType contentType, final boolean singleLine,
+            final OutputStream out) throws IOException {
+        if ((contentType == null || contentType == XContentType.JSON) && (!singleLine || source.indexOf((byte) '\n', 0) == -1)) {
+            // already in the wire format
+            source.writeTo(out);
+            return;
+        }
+        final XContent xContent = contentType == null ? XContentType.JSON.xContent() : contentType.xContent();
+        try (final XContentParser parser =
+                xContent.createParser(NamedXContentRegistry.EMPTY, LoggingDeprecationHandler.INSTANCE, source.streamInput());
+                final XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, new NoCloseOutputStream(out))) {
+            builder.copyCurrentStructure(parser);
+        }
+    }
+
+    // writes the source in the wire format, as is if it is already in that format
+    protected void writeSource(final BytesReference source, final XContentType contentType, final OutputStream out) throws IOException {
+        final XContentType wireType = client.getWireFormat().getXContentType();
+        if (wireType == XContentType.JSON) {
+            writeJsonSource(source, contentType, false, out);
+            return;
+        }
+        final XContentType sourceType = contentType != null ? contentType : XContentType.JSON;
+        if (sourceType == wireType) {
+            source.writeTo(out);
+            return;
+        }
+        try (final XContentParser parser =
+                sourceType.xContent().createParser(NamedXContentRegistry.EMPTY, LoggingDeprecationHandler.INSTANCE, source.streamInput());
+                final XContentBuilder builder = new XContentBuilder(wireType.xContent(), new NoCloseOutputStream(out))) {
+            builder.copyCurrentStructure(parser);
+        }
+    }
+
+    // a source that needs a conversion is converted up front, so a malformed one fails before a host is contacted
+    protected BytesReference toWireSource(final BytesReference source, final XContentType contentType) throws IOException {
+        final XContentType sourceType = contentType != null ? contentType : XContentType.JSON;
+        if (sourceType == client.getWireFormat().getXContentType()) {
+            return source;
+        }
+        final BytesStreamOutput out = new BytesStreamOutput(source.length());
+        writeSource(source, contentType, out);
+        return out.bytes();
+    }
+
+    protected void writeXContent(final ToXContent content, final OutputStream out) throws IOException {
+        try (final XContentBuilder builder =
+                new XContentBuilder(client.getWireFormat().getXContentType().xContent(), new NoCloseOutputStream(out))) {
+            content.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        }
+    }
+
     protected int getActiveShardsCountValue(final ActiveShardCount activeShardCount) {
         try (final ByteArrayStreamOutput out = new ByteArrayStreamOutput()) {
             activeShardCount.writeTo(out);
@@ -58,7 +58,7 @@ public class HttpAliasesExistAction extends HttpAction {
     protected CurlRequest getCurlRequest(final GetAliasesRequest request) {
         // RestGetAliasesAction
         final CurlRequest curlRequest =
-                client.getCurlRequest(HEAD, "/_alias/" + UrlUtils.joinAndEncode(",", request.aliases()), request.indices());
+                client.getCurlRequest(HEAD_METHOD, "/_alias/" + UrlUtils.joinAndEncode(",", request.aliases()), request.indices());
         curlRequest.param("local", Boolean.toString(request.local()));
         return curlRequest;
     }
@@ -72,7 +72,7 @@ public class HttpAnalyzeAction extends HttpAction {
     protected CurlRequest getCurlRequest(final AnalyzeAction.Request request) {
         // RestAnalyzeAction
         final CurlRequest curlRequest =
-                client.getCurlRequest(POST, "/_analyze", request.index() == null ? new String[0] : request.indices());
+                client.getCurlRequest(POST_METHOD, "/_analyze", request.index() == null ? new String[0] : request.indices());
         return curlRequest;
     }
 
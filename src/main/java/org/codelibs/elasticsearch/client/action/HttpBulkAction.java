@@ -15,16 +15,51 @@
  */
 package org.codelibs.elasticsearch.client.action;
 
+import static org.elasticsearch.common.xcontent.XContentParserUtils.ensureExpectedToken;
+
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import org.codelibs.curl.CurlRequest;
+import org.codelibs.curl.CurlResponse;
 import org.codelibs.elasticsearch.client.HttpClient;
+import org.codelibs.elasticsearch.client.HttpClient.ContentType;
+import org.codelibs.elasticsearch.client.bulk.BulkShardRouter;
+import org.codelibs.elasticsearch.client.curl.HttpCurlRequest;
+import org.codelibs.elasticsearch.client.host.Host;
+import org.codelibs.elasticsearch.client.io.stream.NoCloseOutputStream;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteRequest.OpType;
 import org.elasticsearch.action.bulk.BulkAction;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
@@ -32,76 +67,388 @@ import org.elasticsearch.action.support.ActiveShardCount;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
-import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentParser;
-import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.seqno.SequenceNumbers;
+import org.elasticsearch.rest.RestStatus;
 
 public class HttpBulkAction extends HttpAction {
 
+    private static final Logger logger = LogManager.getLogger(HttpBulkAction.class);
+
     protected final BulkAction action;
 
+    protected final int maxRetries;
+
+    protected final long initialBackoff;
+
+    protected final long maxBackoff;
+
+    protected final int serializationChunkSize;
+
+    protected final boolean failuresOnly;
+
     public HttpBulkAction(final HttpClient client, final BulkAction action) {
         super(client);
         this.action = action;
+        final Settings settings = client.settings();
+        maxRetries = settings.getAsInt("http.bulk.retry.max_retries", 0);
+        initialBackoff = settings.getAsTime("http.bulk.retry.initial_backoff", TimeValue.timeValueMillis(100)).millis();
+        maxBackoff = settings.getAsTime("http.bulk.retry.max_backoff", TimeValue.timeValueSeconds(5)).millis();
+        serializationChunkSize = settings.getAsInt("http.bulk.serialization.chunk_size", 0);
+        failuresOnly = settings.getAsBoolean("http.bulk.failures_only", false);
     }
 
     public void execute(final BulkRequest request, final ActionListener<BulkResponse> listener) {
-        // http://ndjson.org/
-        final StringBuilder buf = new StringBuilder(10000);
+        if (maxRetries > 0 && request.numberOfActions() > 0) {
+            client.getBulkRetryBudget().deposit(request.numberOfActions());
+            final List<Integer> slots = IntStream.range(0, request.numberOfActions()).boxed().collect(Collectors.toList());
+            executeWithRetry(request, request, slots, new BulkItemResponse[slots.size()], 0, System.nanoTime(), listener);
+        } else {
+            doExecute(request, listener);
+        }
+    }
+
+    protected void executeWithRetry(final BulkRequest original, final BulkRequest request, final List<Integer> slots,
+            final BulkItemResponse[] items, final int retryCount, final long startTime, final ActionListener<BulkResponse> listener) {
+        doExecute(
+                request,
+                ActionListener.wrap(response -> {
+                    final BulkItemResponse[] responses = response.getItems();
+                    int rejected = 0;
+                    for (final BulkItemResponse item : responses) {
+                        if (isRejected(item)) {
+                            rejected++;
+                        }
+                    }
+                    // items the budget cannot pay for keep their rejection
+                        int allowed = retryCount < maxRetries && rejected > 0 ? client.getBulkRetryBudget().withdraw(rejected) : 0;
+                        final List<Integer> rejectedSlots = new ArrayList<>(allowed);
+                        for (final BulkItemResponse item : responses) {
+                            final int slot = slots.get(item.getItemId());
+                            if (allowed > 0 && isRejected(item)) {
+                                rejectedSlots.add(slot);
+                                allowed--;
+                            } else {
+                                items[slot] = renumber(item, slot);
+                            }
+                        }
+                        if (rejectedSlots.isEmpty()) {
+                            listener.onResponse(newBulkResponse(items, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+                        } else {
+                            scheduleRetry(original, rejectedSlots, items, retryCount, startTime, listener);
+                        }
+                    }, e -> {
+                        if (retryCount < maxRetries && ExceptionsHelper.status(e) == RestStatus.TOO_MANY_REQUESTS
+                                && client.getBulkRetryBudget().withdrawAll(slots.size())) {
+                            // the whole request was rejected
+                        scheduleRetry(original, slots, items, retryCount, startTime, listener);
+                    } else {
+                        listener.onFailure(e);
+                    }
+                }));
+    }
+
+    protected boolean isRejected(final BulkItemResponse item) {
+        return item.isFailed() && item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS;
+    }
+
+    protected void scheduleRetry(final BulkRequest original, final List<Integer> slots, final BulkItemResponse[] items,
+            final int retryCount, final long startTime, final ActionListener<BulkResponse> listener) {
+        final BulkRequest retryRequest = newBulkRequest(original, slots);
+        final long delay = getRetryDelay(retryCount);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Retrying {} rejected bulk items in {}ms.", slots.size(), delay);
+        }
         try {
-            final List<DocWriteRequest<?>> bulkRequests = request.requests();
-            for (@SuppressWarnings("rawtypes")
-            final DocWriteRequest req : bulkRequests) {
-                buf.append(getStringfromDocWriteRequest(req));
-                buf.append('\n');
-                switch (req.opType().getId()) {
-                case 0: { // INDEX
-                    buf.append(XContentHelper.convertToJson(((IndexRequest) req).source(), false, XContentType.JSON));
-                    buf.append('\n');
-                    break;
+            client.getScheduler().schedule(
+                    () -> client.getExecutor().execute(
+                            () -> executeWithRetry(original, retryRequest, slots, items, retryCount + 1, startTime, listener)), delay,
+                    TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            listener.onFailure(e);
+        }
+    }
+
+    protected long getRetryDelay(final int retryCount) {
+        long backoff = initialBackoff;
+        for (int i = 0; i < retryCount && backoff < maxBackoff; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, maxBackoff);
+        // equal jitter
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    protected BulkRequest newBulkRequest(final BulkRequest original, final List<Integer> slots) {
+        final BulkRequest request = new BulkRequest();
+        for (final Integer slot : slots) {
+            request.add(original.requests().get(slot));
+        }
+        request.setRefreshPolicy(original.getRefreshPolicy());
+        request.timeout(original.timeout());
+        request.waitForActiveShards(original.waitForActiveShards());
+        return request;
+    }
+
+    protected BulkResponse newBulkResponse(final BulkItemResponse[] items, final long tookInMillis) {
+        if (!failuresOnly) {
+            return new BulkResponse(items, tookInMillis);
+        }
+        // successful items are not materialized
+        return new BulkResponse(Arrays.stream(items).filter(Objects::nonNull).toArray(BulkItemResponse[]::new), tookInMillis);
+    }
+
+    protected BulkItemResponse renumber(final BulkItemResponse item, final int slot) {
+        if (item.isFailed()) {
+            return new BulkItemResponse(slot, item.getOpType(), item.getFailure());
+        }
+        return new BulkItemResponse(slot, item.getOpType(), item.getResponse());
+    }
+
+    protected void doExecute(final BulkRequest request, final ActionListener<BulkResponse> listener) {
+        final BulkShardRouter router = client.getBulkShardRouter();
+        if (router == null || request.numberOfActions() == 0) {
+            send(request, null, listener);
+            return;
+        }
+        router.route(request, new ActionListener<Map<String, List<Integer>>>() {
+            @Override
+            public void onResponse(final Map<String, List<Integer>> routes) {
+                try {
+                    if (routes.size() == 1) {
+                        send(request, routes.keySet().iterator().next(), listener);
+                    } else {
+                        sendPerNode(request, routes, listener);
+                    }
+                } catch (final Exception e) {
+                    listener.onFailure(e);
+                }
+            }
+
+            @Override
+            public void onFailure(final Exception e) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Failed to route bulk items to shards.", e);
                 }
-                case 1: { // CREATE
-                    buf.append(XContentHelper.convertToJson(((IndexRequest) req).source(), false, XContentType.JSON));
-                    buf.append('\n');
-                    break;
+                send(request, null, listener);
+            }
+        });
+    }
+
+    protected void sendPerNode(final BulkRequest original, final Map<String, List<Integer>> routes,
+            final ActionListener<BulkResponse> listener) {
+        final BulkItemResponse[] items = new BulkItemResponse[original.numberOfActions()];
+        final AtomicInteger counter = new AtomicInteger(routes.size());
+        final AtomicLong tookInMillis = new AtomicLong(0L);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final AtomicBoolean succeeded = new AtomicBoolean(false);
+        final Runnable onFinished = () -> {
+            if (counter.decrementAndGet() == 0) {
+                if (succeeded.get()) {
+                    listener.onResponse(newBulkResponse(items, tookInMillis.get()));
+                } else {
+                    listener.onFailure(failure.get());
                 }
-                case 2: { // UPDATE
-                    try (final XContentBuilder builder =
-                            ((UpdateRequest) req).toXContent(JsonXContent.contentBuilder(), ToXContent.EMPTY_PARAMS)) {
-                        builder.flush();
-                        buf.append(BytesReference.bytes(builder).utf8ToString());
-                        buf.append('\n');
+            }
+        };
+        for (final Map.Entry<String, List<Integer>> entry : routes.entrySet()) {
+            final List<Integer> slots = entry.getValue();
+            final BulkRequest request = newBulkRequest(original, slots);
+            final Consumer<Exception> onFailure =
+                    e -> {
+                        failure.compareAndSet(null, e);
+                        final RestStatus status = ExceptionsHelper.status(e);
+                        for (final Integer slot : slots) {
+                            final DocWriteRequest<?> req = original.requests().get(slot);
+                            items[slot] =
+                                    new BulkItemResponse(slot, req.opType(), new BulkItemResponse.Failure(req.index(), req.type(),
+                                            req.id(), e, status));
+                        }
+                        onFinished.run();
+                    };
+            try {
+                send(request, entry.getKey(), ActionListener.wrap(response -> {
+                    final BulkItemResponse[] responses = response.getItems();
+                    for (int i = 0; i < responses.length; i++) {
+                        final int slot = slots.get(responses[i].getItemId());
+                        items[slot] = renumber(responses[i], slot);
                     }
-                    break;
+                    tookInMillis.accumulateAndGet(response.getTook().millis(), Math::max);
+                    succeeded.set(true);
+                    onFinished.run();
+                }, onFailure::accept));
+            } catch (final Exception e) {
+                onFailure.accept(e);
+            }
+        }
+    }
+
+    protected void send(final BulkRequest request, final String url, final ActionListener<BulkResponse> listener) {
+        final Host host = url == null ? null : client.findHost(url);
+        // a dead node falls back to the configured hosts
+        final CurlRequest curlRequest = host != null && client.isAvailable(host) ? getCurlRequest(request, host) : getCurlRequest(request);
+        ((HttpCurlRequest) curlRequest).body(out -> writeBulkRequest(request, out)).execute(response -> parseResponse(response, listener),
+                e -> unwrapElasticsearchException(listener, e));
+    }
+
+    // the request only supplies the parameters and the body is sent as NDJSON as it is
+    public void execute(final BulkRequest request, final String index, final ByteBuffer[] body, final ActionListener<BulkResponse> listener) {
+        final String[] indices = index == null ? new String[0] : new String[] { index };
+        ((HttpCurlRequest) addParams(client.getCurlRequest(POST_METHOD, "/_bulk", indices), request)).body(body).execute(
+                response -> parseResponse(response, listener), e -> unwrapElasticsearchException(listener, e));
+    }
+
+    protected void parseResponse(final CurlResponse response, final ActionListener<BulkResponse> listener) {
+        try (final XContentParser parser = createParser(response)) {
+            final BulkResponse bulkResponse = failuresOnly ? parseFailures(parser) : BulkResponse.fromXContent(parser);
+            for (final BulkItemResponse item : bulkResponse.getItems()) {
+                if (item != null) {
+                    ensureShardInfo(item.getResponse());
                 }
-                case 3: { // DELETE
-                    break;
+            }
+            listener.onResponse(bulkResponse);
+        } catch (final Exception e) {
+            listener.onFailure(toElasticsearchException(response, e));
+        }
+    }
+
+    protected BulkResponse parseFailures(final XContentParser parser) throws IOException {
+        // took and errors come before items
+        XContentParser.Token token = parser.nextToken();
+        ensureExpectedToken(XContentParser.Token.START_OBJECT, token, parser::getTokenLocation);
+        long took = -1;
+        final List<BulkItemResponse> failures = new ArrayList<>();
+        String currentFieldName = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if ("took".equals(currentFieldName)) {
+                took = parser.longValue();
+            } else if ("errors".equals(currentFieldName)) {
+                if (!parser.booleanValue() && took != -1) {
+                    return new BulkResponse(new BulkItemResponse[0], took);
                 }
-                default:
-                    break;
+            } else if ("items".equals(currentFieldName) && token == XContentParser.Token.START_ARRAY) {
+                int itemId = 0;
+                while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                    final BulkItemResponse failure = parseFailure(parser, itemId++);
+                    if (failure != null) {
+                        failures.add(failure);
+                    }
                 }
+            } else {
+                parser.skipChildren();
             }
-        } catch (final IOException e) {
-            throw new ElasticsearchException("Failed to parse a request.", e);
         }
-        getCurlRequest(request).body(buf.toString()).execute(response -> {
-            try (final XContentParser parser = createParser(response)) {
-                final BulkResponse bulkResponse = BulkResponse.fromXContent(parser);
-                listener.onResponse(bulkResponse);
-            } catch (final Exception e) {
-                listener.onFailure(toElasticsearchException(response, e));
+        return new BulkResponse(failures.toArray(new BulkItemResponse[failures.size()]), took);
+    }
+
+    protected BulkItemResponse parseFailure(final XContentParser parser, final int itemId) throws IOException {
+        // {"index":{"_index":"...","_type":"...","_id":"...","status":400,"error":{...}}}
+        ensureExpectedToken(XContentParser.Token.FIELD_NAME, parser.nextToken(), parser::getTokenLocation);
+        final OpType opType = OpType.fromString(parser.currentName());
+        ensureExpectedToken(XContentParser.Token.START_OBJECT, parser.nextToken(), parser::getTokenLocation);
+        String index = null;
+        String type = null;
+        String id = null;
+        int status = -1;
+        ElasticsearchException exception = null;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token == XContentParser.Token.START_OBJECT && "error".equals(currentFieldName)) {
+                exception = ElasticsearchException.fromXContent(parser);
+            } else if ("_index".equals(currentFieldName)) {
+                index = parser.text();
+            } else if ("_type".equals(currentFieldName)) {
+                type = parser.text();
+            } else if ("_id".equals(currentFieldName)) {
+                id = parser.textOrNull();
+            } else if ("status".equals(currentFieldName)) {
+                status = parser.intValue();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        ensureExpectedToken(XContentParser.Token.END_OBJECT, parser.nextToken(), parser::getTokenLocation);
+        if (exception == null) {
+            return null;
+        }
+        return new BulkItemResponse(itemId, opType, new BulkItemResponse.Failure(index, type, id, exception, RestStatus.fromCode(status)));
+    }
+
+    public void writeBulkRequest(final BulkRequest request, final OutputStream out) throws IOException {
+        final List<DocWriteRequest<?>> requests = request.requests();
+        if (serializationChunkSize > 0 && requests.size() > serializationChunkSize) {
+            for (final BytesReference segment : serializeInParallel(requests)) {
+                segment.writeTo(out);
             }
-        }, e -> unwrapElasticsearchException(listener, e));
+            return;
+        }
+        for (final DocWriteRequest<?> req : requests) {
+            writeDocWriteRequest(req, out);
+        }
+    }
+
+    protected BytesReference[] serializeInParallel(final List<DocWriteRequest<?>> requests) throws IOException {
+        final BytesReference[] segments = new BytesReference[(requests.size() + serializationChunkSize - 1) / serializationChunkSize];
+        final SerializationTask task = new SerializationTask(requests, segments, 0, segments.length);
+        final Executor executor = client.getExecutor();
+        final ForkJoinPool pool = executor instanceof ForkJoinPool ? (ForkJoinPool) executor : ForkJoinPool.commonPool();
+        try {
+            pool.invoke(task);
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return segments;
+    }
+
+    protected void writeDocWriteRequest(final DocWriteRequest<?> req, final OutputStream out) throws IOException {
+        // http://ndjson.org/
+        out.write(getStringfromDocWriteRequest(req).getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+        switch (req.opType().getId()) {
+        case 0: // INDEX
+        case 1: { // CREATE
+            final IndexRequest indexRequest = (IndexRequest) req;
+            writeJsonSource(indexRequest.source(), indexRequest.getContentType(), true, out);
+            out.write('\n');
+            break;
+        }
+        case 2: { // UPDATE
+            try (final XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, new NoCloseOutputStream(out))) {
+                ((UpdateRequest) req).toXContent(builder, ToXContent.EMPTY_PARAMS);
+            }
+            out.write('\n');
+            break;
+        }
+        case 3: { // DELETE
+            break;
+        }
+        default:
+            break;
+        }
     }
 
     protected CurlRequest getCurlRequest(final BulkRequest request) {
+        return addParams(client.getCurlRequest(POST_METHOD, "/_bulk"), request);
+    }
+
+    protected CurlRequest getCurlRequest(final BulkRequest request, final Host host) {
+        return addParams(client.getCurlRequest(host, POST_METHOD, ContentType.JSON, "/_bulk"), request);
+    }
+
+    protected CurlRequest addParams(final CurlRequest curlRequest, final BulkRequest request) {
         // RestBulkAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_bulk");
         if (!ActiveShardCount.DEFAULT.equals(request.waitForActiveShards())) {
             curlRequest.param("wait_for_active_shards", String.valueOf(getActiveShardsCountValue(request.waitForActiveShards())));
         }
@@ -111,7 +458,11 @@ public class HttpBulkAction extends HttpAction {
         if (!RefreshPolicy.NONE.equals(request.getRefreshPolicy())) {
             curlRequest.param("refresh", request.getRefreshPolicy().getValue());
         }
-        return curlRequest;
+        if (failuresOnly) {
+            curlRequest.param("filter_path", "took,errors,items.*.error,items.*._index,items.*._type,items.*._id,items.*.status");
+            return curlRequest;
+        }
+        return addFilterPath(curlRequest, "bulk", BULK_FILTER_PATH);
     }
 
     protected String getStringfromDocWriteRequest(final DocWriteRequest<?> request) {
@@ -174,4 +525,43 @@ public class HttpBulkAction extends HttpAction {
     protected StringBuilder appendStr(final StringBuilder buf, final String key, final String value) {
         return buf.append('"').append(key).append("\":\"").append(value).append('"');
     }
+
+    protected class SerializationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final List<DocWriteRequest<?>> requests;
+
+        protected final BytesReference[] segments;
+
+        protected final int from;
+
+        protected final int to;
+
+        protected SerializationTask(final List<DocWriteRequest<?>> requests, final BytesReference[] segments, final int from, final int to) {
+            this.requests = requests;
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new SerializationTask(requests, segments, from, mid), new SerializationTask(requests, segments, mid, to));
+                return;
+            }
+            final int start = from * serializationChunkSize;
+            final int end = Math.min(start + serializationChunkSize, requests.size());
+            try (final BytesStreamOutput out = new BytesStreamOutput()) {
+                for (int i = start; i < end; i++) {
+                    writeDocWriteRequest(requests.get(i), out);
+                }
+                segments[from] = out.bytes();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
 }
@@ -45,7 +45,7 @@ public class HttpCancelTasksAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final CancelTasksRequest request) {
         // RestCancelTasksAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_tasks/_cancel");
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_tasks/_cancel");
         curlRequest.param("task_id", String.valueOf(request.getTaskId()));
         curlRequest.param("parent_task_id", String.valueOf(request.getParentTaskId()));
         if (request.getNodes() != null) {
@@ -45,7 +45,7 @@ public class HttpClearIndicesCacheAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final ClearIndicesCacheRequest request) {
         // RestClearIndicesCacheAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_cache/clear", request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_cache/clear", request.indices());
         if (request.fields() != null && request.fields().length > 0) {
             curlRequest.param("fields", String.join(",", request.fields()));
         }
@@ -59,7 +59,7 @@ public class HttpClearScrollAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final ClearScrollRequest request) {
         // RestClearScrollAction
-        final CurlRequest curlRequest = client.getCurlRequest(DELETE, "/_search/scroll");
+        final CurlRequest curlRequest = client.getCurlRequest(DELETE_METHOD, "/_search/scroll");
         return curlRequest;
     }
 }
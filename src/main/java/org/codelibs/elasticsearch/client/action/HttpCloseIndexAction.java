@@ -55,7 +55,7 @@ public class HttpCloseIndexAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final CloseIndexRequest request) {
         // RestCloseIndexAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_close", request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_close", request.indices());
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
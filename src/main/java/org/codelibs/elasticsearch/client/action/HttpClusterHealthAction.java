@@ -52,7 +52,7 @@ public class HttpClusterHealthAction extends HttpAction {
     protected CurlRequest getCurlRequest(final ClusterHealthRequest request) {
         // RestClusterHealthAction
         final CurlRequest curlRequest =
-                client.getCurlRequest(GET,
+                client.getCurlRequest(GET_METHOD,
                         "/_cluster/health" + (request.indices() == null ? "" : "/" + UrlUtils.joinAndEncode(",", request.indices())));
         curlRequest.param("wait_for_no_relocating_shards", Boolean.toString(request.waitForNoRelocatingShards()));
         curlRequest.param("wait_for_no_initializing_shards", Boolean.toString(request.waitForNoInitializingShards()));
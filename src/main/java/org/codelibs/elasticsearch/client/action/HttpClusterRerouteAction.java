@@ -31,7 +31,7 @@ public class HttpClusterRerouteAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final ClusterRerouteRequest request) {
         // RestClusterRerouteAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_cluster/reroute");
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_cluster/reroute");
         if (request.dryRun()) {
             curlRequest.param("dry_run", Boolean.toString(request.dryRun()));
         }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.action;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.codelibs.curl.CurlRequest;
+import org.codelibs.elasticsearch.client.HttpClient;
+import org.codelibs.elasticsearch.client.io.stream.ByteArrayStreamOutput;
+import org.elasticsearch.Version;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsAction;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsGroup;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsRequest;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.routing.RecoverySource;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.cluster.routing.ShardRoutingState;
+import org.elasticsearch.cluster.routing.UnassignedInfo;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.search.internal.AliasFilter;
+
+public class HttpClusterSearchShardsAction extends HttpAction {
+
+    protected final ClusterSearchShardsAction action;
+
+    public HttpClusterSearchShardsAction(final HttpClient client, final ClusterSearchShardsAction action) {
+        super(client);
+        this.action = action;
+    }
+
+    public void execute(final ClusterSearchShardsRequest request, final ActionListener<ClusterSearchShardsResponse> listener) {
+        getCurlRequest(request).execute(response -> {
+            try (final XContentParser parser = createParser(response)) {
+                final ClusterSearchShardsResponse clusterSearchShardsResponse = fromXContent(parser);
+                listener.onResponse(clusterSearchShardsResponse);
+            } catch (final Exception e) {
+                listener.onFailure(toElasticsearchException(response, e));
+            }
+        }, e -> unwrapElasticsearchException(listener, e));
+    }
+
+    protected CurlRequest getCurlRequest(final ClusterSearchShardsRequest request) {
+        // RestClusterSearchShardsAction
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, "/_search_shards", request.indices());
+        if (request.routing() != null) {
+            curlRequest.param("routing", request.routing());
+        }
+        if (request.preference() != null) {
+            curlRequest.param("preference", request.preference());
+        }
+        curlRequest.param("local", Boolean.toString(request.local()));
+        final IndicesOptions indicesOptions = request.indicesOptions();
+        curlRequest.param("ignore_unavailable", Boolean.toString(indicesOptions.ignoreUnavailable()));
+        curlRequest.param("allow_no_indices", Boolean.toString(indicesOptions.allowNoIndices()));
+        final List<String> expandWildcards = new ArrayList<>();
+        if (indicesOptions.expandWildcardsOpen()) {
+            expandWildcards.add("open");
+        }
+        if (indicesOptions.expandWildcardsClosed()) {
+            expandWildcards.add("closed");
+        }
+        curlRequest.param("expand_wildcards", expandWildcards.isEmpty() ? "none" : String.join(",", expandWildcards));
+        return curlRequest;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected ClusterSearchShardsResponse fromXContent(final XContentParser parser) throws IOException {
+        final Map<String, Object> map = parser.map();
+
+        final List<DiscoveryNode> nodes = new ArrayList<>();
+        final Map<String, Object> nodeMap = (Map<String, Object>) map.getOrDefault("nodes", Collections.emptyMap());
+        for (final Map.Entry<String, Object> entry : nodeMap.entrySet()) {
+            final Map<String, Object> node = (Map<String, Object>) entry.getValue();
+            final Map<String, String> attributes = new HashMap<>();
+            ((Map<String, Object>) node.getOrDefault("attributes", Collections.emptyMap())).forEach((k, v) -> attributes.put(k,
+                    String.valueOf(v)));
+            final String transportAddress = (String) node.get("transport_address");
+            nodes.add(new DiscoveryNode((String) node.getOrDefault("name", ""), entry.getKey(), HttpNodesStatsAction
+                    .parseTransportAddress(transportAddress), attributes, new HashSet<>(), Version.CURRENT));
+        }
+
+        final Map<String, AliasFilter> indicesAndFilters = new HashMap<>();
+        final Map<String, Object> indexMap = (Map<String, Object>) map.getOrDefault("indices", Collections.emptyMap());
+        for (final Map.Entry<String, Object> entry : indexMap.entrySet()) {
+            final Map<String, Object> index = (Map<String, Object>) entry.getValue();
+            final List<String> aliases = (List<String>) index.getOrDefault("aliases", Collections.emptyList());
+            // the alias filter is not parsed
+            indicesAndFilters.put(entry.getKey(), new AliasFilter(null, aliases.toArray(new String[aliases.size()])));
+        }
+
+        final List<ClusterSearchShardsGroup> groups = new ArrayList<>();
+        for (final Object value : (List<Object>) map.getOrDefault("shards", Collections.emptyList())) {
+            final List<Object> shards = (List<Object>) value;
+            final ShardRouting[] shardRoutings = new ShardRouting[shards.size()];
+            for (int i = 0; i < shardRoutings.length; i++) {
+                shardRoutings[i] = toShardRouting((Map<String, Object>) shards.get(i));
+            }
+            if (shardRoutings.length > 0) {
+                groups.add(new ClusterSearchShardsGroup(shardRoutings[0].shardId(), shardRoutings));
+            }
+        }
+
+        return new ClusterSearchShardsResponse(groups.toArray(new ClusterSearchShardsGroup[groups.size()]),
+                nodes.toArray(new DiscoveryNode[nodes.size()]), indicesAndFilters);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected ShardRouting toShardRouting(final Map<String, Object> map) throws IOException {
+        final ShardRoutingState state = ShardRoutingState.valueOf((String) map.get(STATE_FIELD.getPreferredName()));
+        final boolean primary = (Boolean) map.get(PRIMARY_FIELD.getPreferredName());
+        final String index = (String) map.get(INDEX_FIELD.getPreferredName());
+        final int shard = ((Number) map.get(SHARD_FIELD.getPreferredName())).intValue();
+        // the index uuid is not returned at REST
+        final ShardId shardId = new ShardId(new Index(index, ""), shard);
+        try (final ByteArrayStreamOutput out = new ByteArrayStreamOutput()) {
+            out.writeOptionalString((String) map.get(NODE_FIELD.getPreferredName()));
+            out.writeOptionalString((String) map.get(RELOCATING_NODE_FIELD.getPreferredName()));
+            out.writeBoolean(primary);
+            out.writeByte(state.value());
+            if (state == ShardRoutingState.UNASSIGNED || state == ShardRoutingState.INITIALIZING) {
+                final Map<String, Object> recoverySource = (Map<String, Object>) map.get(RECOVERY_SOURCE_FIELD.getPreferredName());
+                toRecoverySource(recoverySource == null ? null : (String) recoverySource.get(TYPE_FIELD.getPreferredName()), primary)
+                        .writeTo(out);
+            }
+            final Map<String, Object> unassignedInfo = (Map<String, Object>) map.get(UNASSIGNED_INFO_FIELD.getPreferredName());
+            if (unassignedInfo != null) {
+                out.writeBoolean(true);
+                new UnassignedInfo(UnassignedInfo.Reason.valueOf((String) unassignedInfo.get(REASON_FIELD.getPreferredName())),
+                        (String) unassignedInfo.get(DETAILS_FIELD.getPreferredName())).writeTo(out);
+            } else {
+                out.writeBoolean(false);
+            }
+            final Map<String, Object> allocationId = (Map<String, Object>) map.get(ALLOCATION_ID_FIELD.getPreferredName());
+            if (allocationId != null) {
+                out.writeBoolean(true);
+                final String relocationId = (String) allocationId.get("relocation_id");
+                // AllocationId
+                out.writeString((String) allocationId.get("id"));
+                out.writeOptionalString(relocationId);
+            } else {
+                out.writeBoolean(false);
+            }
+            if (state == ShardRoutingState.RELOCATING || state == ShardRoutingState.INITIALIZING) {
+                final Number expectedShardSize = (Number) map.get(EXPECTED_SHARD_SIZE_IN_BYTES_FIELD.getPreferredName());
+                out.writeLong(expectedShardSize == null ? ShardRouting.UNAVAILABLE_EXPECTED_SHARD_SIZE : expectedShardSize.longValue());
+            }
+            return new ShardRouting(shardId, out.toStreamInput());
+        }
+    }
+
+    protected RecoverySource toRecoverySource(final String type, final boolean primary) {
+        if (type == null) {
+            return primary ? RecoverySource.ExistingStoreRecoverySource.INSTANCE : RecoverySource.PeerRecoverySource.INSTANCE;
+        }
+        switch (RecoverySource.Type.valueOf(type.toUpperCase(Locale.ROOT))) {
+        case EMPTY_STORE:
+            return RecoverySource.EmptyStoreRecoverySource.INSTANCE;
+        case LOCAL_SHARDS:
+            return RecoverySource.LocalShardsRecoverySource.INSTANCE;
+        case PEER:
+            return RecoverySource.PeerRecoverySource.INSTANCE;
+        default:
+            // snapshot details are not needed on the client side
+            return RecoverySource.ExistingStoreRecoverySource.INSTANCE;
+        }
+    }
+}
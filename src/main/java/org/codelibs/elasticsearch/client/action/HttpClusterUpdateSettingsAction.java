@@ -59,7 +59,7 @@ public class HttpClusterUpdateSettingsAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final ClusterUpdateSettingsRequest request) {
         // RestClusterUpdateSettingsAction
-        final CurlRequest curlRequest = client.getCurlRequest(PUT, "/_cluster/settings");
+        final CurlRequest curlRequest = client.getCurlRequest(PUT_METHOD, "/_cluster/settings");
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
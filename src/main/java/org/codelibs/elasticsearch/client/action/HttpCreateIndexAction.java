@@ -123,7 +123,7 @@ public class HttpCreateIndexAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final CreateIndexRequest request) {
         // RestCreateIndexAction
-        final CurlRequest curlRequest = client.getCurlRequest(PUT, "/", request.index());
+        final CurlRequest curlRequest = client.getCurlRequest(PUT_METHOD, "/", request.index());
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
@@ -67,7 +67,7 @@ public class HttpCreateSnapshotAction extends HttpAction {
         if (request.snapshot() != null) {
             pathBuf.append('/').append(UrlUtils.encode(request.snapshot()));
         }
-        final CurlRequest curlRequest = client.getCurlRequest(POST, pathBuf.toString());
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, pathBuf.toString());
         if (request.masterNodeTimeout() != null) {
             curlRequest.param("master_timeout", request.masterNodeTimeout().toString());
         }
@@ -41,7 +41,7 @@ public class HttpDeleteAction extends HttpAction {
     public void execute(final DeleteRequest request, final ActionListener<DeleteResponse> listener) {
         getCurlRequest(request).execute(response -> {
             try (final XContentParser parser = createParser(response)) {
-                final DeleteResponse deleteResponse = DeleteResponse.fromXContent(parser);
+                final DeleteResponse deleteResponse = ensureShardInfo(DeleteResponse.fromXContent(parser));
                 listener.onResponse(deleteResponse);
             } catch (final Exception e) {
                 listener.onFailure(toElasticsearchException(response, e));
@@ -51,7 +51,7 @@ public class HttpDeleteAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final DeleteRequest request) {
         // RestDeleteAction
-        final CurlRequest curlRequest = client.getCurlRequest(DELETE, "/_doc/" + UrlUtils.encode(request.id()), request.index());
+        final CurlRequest curlRequest = client.getCurlRequest(DELETE_METHOD, "/_doc/" + UrlUtils.encode(request.id()), request.index());
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
@@ -66,6 +66,7 @@ public class HttpDeleteAction extends HttpAction {
         if (!ActiveShardCount.DEFAULT.equals(request.waitForActiveShards())) {
             curlRequest.param("wait_for_active_shards", String.valueOf(getActiveShardsCountValue(request.waitForActiveShards())));
         }
-        return curlRequest.param("routing", request.routing()).param("version", String.valueOf(request.version()));
+        return addFilterPath(curlRequest.param("routing", request.routing()).param("version", String.valueOf(request.version())), "delete",
+                DOC_WRITE_FILTER_PATH);
     }
 }
@@ -45,7 +45,7 @@ public class HttpDeleteIndexAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final DeleteIndexRequest request) {
         // RestDeleteIndexAction
-        final CurlRequest curlRequest = client.getCurlRequest(DELETE, "/", request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(DELETE_METHOD, "/", request.indices());
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
@@ -46,7 +46,7 @@ public class HttpDeleteIndexTemplateAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final DeleteIndexTemplateRequest request) {
         // RestDeleteIndexTemplatesAction
-        final CurlRequest curlRequest = client.getCurlRequest(DELETE, "/_template/" + UrlUtils.encode(request.name()));
+        final CurlRequest curlRequest = client.getCurlRequest(DELETE_METHOD, "/_template/" + UrlUtils.encode(request.name()));
         if (request.masterNodeTimeout() != null) {
             curlRequest.param("master_timeout", request.masterNodeTimeout().toString());
         }
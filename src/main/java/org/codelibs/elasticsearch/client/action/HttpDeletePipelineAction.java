@@ -46,7 +46,7 @@ public class HttpDeletePipelineAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final DeletePipelineRequest request) {
         // RestDeletePipelineAction
-        final CurlRequest curlRequest = client.getCurlRequest(DELETE, "/_ingest/pipeline/" + UrlUtils.encode(request.getId()));
+        final CurlRequest curlRequest = client.getCurlRequest(DELETE_METHOD, "/_ingest/pipeline/" + UrlUtils.encode(request.getId()));
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
@@ -46,7 +46,7 @@ public class HttpDeleteRepositoryAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final DeleteRepositoryRequest request) {
         // RestVerifyRepositoryAction
-        final CurlRequest curlRequest = client.getCurlRequest(DELETE, "/_snapshot/" + UrlUtils.encode(request.name()));
+        final CurlRequest curlRequest = client.getCurlRequest(DELETE_METHOD, "/_snapshot/" + UrlUtils.encode(request.name()));
         if (request.masterNodeTimeout() != null) {
             curlRequest.param("master_timeout", request.masterNodeTimeout().toString());
         }
@@ -53,7 +53,7 @@ public class HttpDeleteSnapshotAction extends HttpAction {
         if (request.snapshot() != null) {
             pathBuf.append('/').append(UrlUtils.encode(request.snapshot()));
         }
-        final CurlRequest curlRequest = client.getCurlRequest(DELETE, pathBuf.toString());
+        final CurlRequest curlRequest = client.getCurlRequest(DELETE_METHOD, pathBuf.toString());
         if (request.masterNodeTimeout() != null) {
             curlRequest.param("master_timeout", request.masterNodeTimeout().toString());
         }
@@ -46,7 +46,7 @@ public class HttpDeleteStoredScriptAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final DeleteStoredScriptRequest request) {
         // RestDeleteStoredScriptAction
-        final CurlRequest curlRequest = client.getCurlRequest(DELETE, "/_scripts/" + UrlUtils.encode(request.id()));
+        final CurlRequest curlRequest = client.getCurlRequest(DELETE_METHOD, "/_scripts/" + UrlUtils.encode(request.id()));
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
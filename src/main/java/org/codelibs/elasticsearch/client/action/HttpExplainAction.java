@@ -60,7 +60,7 @@ public class HttpExplainAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final ExplainRequest request) {
         // RestExplainAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_explain/" + UrlUtils.encode(request.id()), request.index());
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_explain/" + UrlUtils.encode(request.id()), request.index());
         if (request.routing() != null) {
             curlRequest.param("routing", request.routing());
         }
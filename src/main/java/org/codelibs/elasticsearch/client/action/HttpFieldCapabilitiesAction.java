@@ -45,7 +45,7 @@ public class HttpFieldCapabilitiesAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final FieldCapabilitiesRequest request) {
         // RestFieldCapabilitiesAction
-        final CurlRequest curlRequest = client.getCurlRequest(GET, "/_field_caps", request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, "/_field_caps", request.indices());
         if (request.fields() != null) {
             curlRequest.param("fields", String.join(",", request.fields()));
         }
@@ -45,7 +45,7 @@ public class HttpFlushAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final FlushRequest request) {
         // RestFlushAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_flush", request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_flush", request.indices());
         curlRequest.param("wait_if_ongoing", Boolean.toString(request.waitIfOngoing()));
         curlRequest.param("force", Boolean.toString(request.force()));
         return curlRequest;
@@ -45,7 +45,7 @@ public class HttpForceMergeAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final ForceMergeRequest request) {
         // RestForceMergeAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_forcemerge", request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_forcemerge", request.indices());
         return curlRequest.param("max_num_segments", String.valueOf(request.maxNumSegments()))
                 .param("only_expunge_deletes", String.valueOf(request.onlyExpungeDeletes()))
                 .param("flush", String.valueOf(request.flush()));
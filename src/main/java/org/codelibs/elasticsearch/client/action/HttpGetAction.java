@@ -15,11 +15,18 @@
  */
 package org.codelibs.elasticsearch.client.action;
 
+import static org.elasticsearch.common.xcontent.XContentParserUtils.ensureExpectedToken;
+
+import java.io.IOException;
 import java.util.Locale;
 
 import org.codelibs.curl.CurlRequest;
 import org.codelibs.elasticsearch.client.HttpClient;
+import org.codelibs.elasticsearch.client.io.LazySourceParser;
+import org.codelibs.elasticsearch.client.io.LazySourceParser.SlicedObject;
+import org.codelibs.elasticsearch.client.io.SourceDecoder;
 import org.codelibs.elasticsearch.client.util.UrlUtils;
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.get.GetAction;
 import org.elasticsearch.action.get.GetRequest;
@@ -27,34 +34,73 @@ import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.index.IndexNotFoundException;
 import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.get.GetResult;
 
 public class HttpGetAction extends HttpAction {
 
     protected final GetAction action;
 
+    protected final boolean lazySource;
+
     public HttpGetAction(final HttpClient client, final GetAction action) {
         super(client);
         this.action = action;
+        lazySource = client.settings().getAsBoolean("http.lazy_source", false);
     }
 
     public void execute(final GetRequest request, final ActionListener<GetResponse> listener) {
-        getCurlRequest(request).execute(response -> {
-            try (final XContentParser parser = createParser(response)) {
-                final GetResponse getResponse = GetResponse.fromXContent(parser);
-                listener.onResponse(getResponse);
-            } catch (final Exception e) {
-                if (response.getHttpStatusCode() == 404) {
-                    throw new IndexNotFoundException(request.index(), e);
-                } else {
-                    listener.onFailure(toElasticsearchException(response, e));
-                }
-            }
-        }, e -> unwrapElasticsearchException(listener, e));
+        execute(request, lazySource, listener);
+    }
+
+    // the listener receives null if the document does not exist
+    public <T> void execute(final GetRequest request, final SourceDecoder<T> decoder, final ActionListener<T> listener) {
+        execute(request, true, ActionListener.wrap(response -> {
+            final T source = response.isExists() ? decodeSource(response.getSourceAsBytesRef(), decoder) : null;
+            listener.onResponse(source);
+        }, listener::onFailure));
+    }
+
+    protected void execute(final GetRequest request, final boolean lazy, final ActionListener<GetResponse> listener) {
+        getCurlRequest(request).execute(
+                response -> {
+                    try (final LazySourceParser lazyParser = lazy ? createLazySourceParser(response) : null;
+                            final XContentParser parser = lazyParser != null ? lazyParser.parser() : createParser(response)) {
+                        final GetResponse getResponse =
+                                lazyParser != null ? parseGetResponse(lazyParser) : GetResponse.fromXContent(parser);
+                        listener.onResponse(getResponse);
+                    } catch (final Exception e) {
+                        if (response.getHttpStatusCode() == 404) {
+                            throw new IndexNotFoundException(request.index(), e);
+                        } else {
+                            listener.onFailure(toElasticsearchException(response, e));
+                        }
+                    }
+                }, e -> unwrapElasticsearchException(listener, e));
+    }
+
+    protected GetResponse parseGetResponse(final LazySourceParser lazyParser) throws IOException {
+        final XContentParser parser = lazyParser.parser();
+        ensureExpectedToken(XContentParser.Token.START_OBJECT, parser.nextToken(), parser::getTokenLocation);
+        // _source is kept as a slice of the response and decoded on access
+        final SlicedObject slicedResult = lazyParser.sliceObject();
+        final GetResult result;
+        try (final XContentParser resultParser = lazyParser.createParser(slicedResult.getMetadata())) {
+            result = GetResult.fromXContentEmbedded(resultParser);
+        }
+        if (result.getIndex() == null && result.getId() == null) {
+            throw new ElasticsearchException("Missing required fields [_index,_id] in the get response.");
+        }
+        if (slicedResult.getSource() == null) {
+            return new GetResponse(result);
+        }
+        return new GetResponse(new GetResult(result.getIndex(), result.getType(), result.getId(), result.getSeqNo(),
+                result.getPrimaryTerm(), result.getVersion(), result.isExists(), slicedResult.getSource(), result.getDocumentFields(),
+                result.getMetadataFields()));
     }
 
     private CurlRequest getCurlRequest(final GetRequest request) {
         // RestGetAction
-        final CurlRequest curlRequest = client.getCurlRequest(GET, "/_doc/" + UrlUtils.encode(request.id()), request.index());
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, "/_doc/" + UrlUtils.encode(request.id()), request.index());
         if (request.refresh()) {
             curlRequest.param("refresh", "true");
         }
@@ -76,6 +122,6 @@ public class HttpGetAction extends HttpAction {
         if (!VersionType.INTERNAL.equals(request.versionType())) {
             curlRequest.param("version_type", request.versionType().name().toLowerCase(Locale.ROOT));
         }
-        return curlRequest;
+        return addFilterPath(curlRequest, "get", null);
     }
 }
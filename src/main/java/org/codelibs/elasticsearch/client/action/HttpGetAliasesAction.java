@@ -59,7 +59,7 @@ public class HttpGetAliasesAction extends HttpAction {
     protected CurlRequest getCurlRequest(final GetAliasesRequest request) {
         // RestGetAliasesAction
         final CurlRequest curlRequest =
-                client.getCurlRequest(GET, "/_alias/" + UrlUtils.joinAndEncode(",", request.aliases()), request.indices());
+                client.getCurlRequest(GET_METHOD, "/_alias/" + UrlUtils.joinAndEncode(",", request.aliases()), request.indices());
         curlRequest.param("local", Boolean.toString(request.local()));
         return curlRequest;
     }
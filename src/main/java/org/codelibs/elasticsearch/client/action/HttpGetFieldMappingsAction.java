@@ -62,7 +62,7 @@ public class HttpGetFieldMappingsAction extends HttpAction {
         if (request.fields().length > 0) {
             pathSuffix.append(UrlUtils.joinAndEncode(",", request.fields()));
         }
-        final CurlRequest curlRequest = client.getCurlRequest(GET, pathSuffix.toString(), request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, pathSuffix.toString(), request.indices());
         curlRequest.param("include_defaults", Boolean.toString(request.includeDefaults()));
         curlRequest.param("local", Boolean.toString(request.local()));
         return curlRequest;
@@ -45,7 +45,7 @@ public class HttpGetIndexAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final GetIndexRequest request) {
         // RestGetIndexAction
-        final CurlRequest curlRequest = client.getCurlRequest(GET, "/", request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, "/", request.indices());
         curlRequest.param("include_defaults", Boolean.toString(request.includeDefaults()));
         return curlRequest;
     }
@@ -46,7 +46,7 @@ public class HttpGetIndexTemplatesAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final GetIndexTemplatesRequest request) {
         // RestGetIndexTemplateAction
-        final CurlRequest curlRequest = client.getCurlRequest(GET, "/_template/" + UrlUtils.joinAndEncode(",", request.names()));
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, "/_template/" + UrlUtils.joinAndEncode(",", request.names()));
         curlRequest.param("local", Boolean.toString(request.local()));
         if (request.masterNodeTimeout() != null) {
             curlRequest.param("master_timeout", request.masterNodeTimeout().toString());
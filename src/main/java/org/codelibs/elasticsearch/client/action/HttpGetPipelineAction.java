@@ -46,7 +46,8 @@ public class HttpGetPipelineAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final GetPipelineRequest request) {
         // RestGetPipelineAction
-        final CurlRequest curlRequest = client.getCurlRequest(GET, "/_ingest/pipeline/" + UrlUtils.joinAndEncode(",", request.getIds()));
+        final CurlRequest curlRequest =
+                client.getCurlRequest(GET_METHOD, "/_ingest/pipeline/" + UrlUtils.joinAndEncode(",", request.getIds()));
         if (request.masterNodeTimeout() != null) {
             curlRequest.param("master_timeout", request.masterNodeTimeout().toString());
         }
@@ -45,7 +45,7 @@ public class HttpGetRepositoriesAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final GetRepositoriesRequest request) {
         // RestGetRepositoriesAction
-        final CurlRequest curlRequest = client.getCurlRequest(GET, "/_snapshot");
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, "/_snapshot");
         curlRequest.param("local", Boolean.toString(request.local()));
         if (request.masterNodeTimeout() != null) {
             curlRequest.param("master_timeout", request.masterNodeTimeout().toString());
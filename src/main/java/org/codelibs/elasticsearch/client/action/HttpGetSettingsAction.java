@@ -47,7 +47,7 @@ public class HttpGetSettingsAction extends HttpAction {
     protected CurlRequest getCurlRequest(final GetSettingsRequest request) {
         // RestGetSettingsAction
         final CurlRequest curlRequest =
-                client.getCurlRequest(GET, "/_settings/" + UrlUtils.joinAndEncode(",", request.names()), request.indices());
+                client.getCurlRequest(GET_METHOD, "/_settings/" + UrlUtils.joinAndEncode(",", request.names()), request.indices());
         curlRequest.param("human", Boolean.toString(request.humanReadable()));
         curlRequest.param("include_defaults", Boolean.toString(request.includeDefaults()));
         curlRequest.param("local", Boolean.toString(request.local()));
@@ -57,7 +57,7 @@ public class HttpGetSnapshotsAction extends HttpAction {
         } else {
             pathBuf.append("/_all");
         }
-        final CurlRequest curlRequest = client.getCurlRequest(GET, pathBuf.toString());
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, pathBuf.toString());
         curlRequest.param("ignore_unavailable", String.valueOf(request.ignoreUnavailable()));
         curlRequest.param("verbose", String.valueOf(request.verbose()));
         if (request.masterNodeTimeout() != null) {
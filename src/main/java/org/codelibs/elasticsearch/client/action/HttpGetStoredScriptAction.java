@@ -46,7 +46,7 @@ public class HttpGetStoredScriptAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final GetStoredScriptRequest request) {
         // RestGetStoredScriptAction
-        final CurlRequest curlRequest = client.getCurlRequest(GET, "/_scripts/" + UrlUtils.encode(request.id()));
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, "/_scripts/" + UrlUtils.encode(request.id()));
         if (request.masterNodeTimeout() != null) {
             curlRequest.param("master_timeout", request.masterNodeTimeout().toString());
         }
@@ -15,11 +15,11 @@
  */
 package org.codelibs.elasticsearch.client.action;
 
-import java.io.IOException;
 import java.util.Locale;
 
 import org.codelibs.curl.CurlRequest;
 import org.codelibs.elasticsearch.client.HttpClient;
+import org.codelibs.elasticsearch.client.curl.HttpCurlRequest;
 import org.codelibs.elasticsearch.client.util.UrlUtils;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.ActionListener;
@@ -29,9 +29,8 @@ import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.support.ActiveShardCount;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
-import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.xcontent.XContentParser;
-import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.VersionType;
 
 public class HttpIndexAction extends HttpAction {
@@ -44,15 +43,16 @@ public class HttpIndexAction extends HttpAction {
     }
 
     public void execute(final IndexRequest request, final ActionListener<IndexResponse> listener) {
-        String source = null;
+        final BytesReference source;
         try {
-            source = XContentHelper.convertToJson(request.source(), false, XContentType.JSON);
-        } catch (final IOException e) {
-            throw new ElasticsearchException("Failed to parse a request.", e);
+            source = toWireSource(request.source(), request.getContentType());
+        } catch (final Exception e) {
+            listener.onFailure(new ElasticsearchException("Failed to parse a request.", e));
+            return;
         }
-        getCurlRequest(request).body(source).execute(response -> {
+        ((HttpCurlRequest) getCurlRequest(request)).body(source::writeTo).execute(response -> {
             try (final XContentParser parser = createParser(response)) {
-                final IndexResponse indexResponse = IndexResponse.fromXContent(parser);
+                final IndexResponse indexResponse = ensureShardInfo(IndexResponse.fromXContent(parser));
                 listener.onResponse(indexResponse);
             } catch (final Exception e) {
                 listener.onFailure(toElasticsearchException(response, e));
@@ -68,7 +68,8 @@ public class HttpIndexAction extends HttpAction {
         if (request.id() != null) {
             pathBuf.append('/').append(UrlUtils.encode(request.id()));
         }
-        final CurlRequest curlRequest = client.getCurlRequest(isPutMethod ? PUT : POST, pathBuf.toString(), request.index());
+        final CurlRequest curlRequest =
+                client.getCurlRequest(isPutMethod ? PUT_METHOD : POST_METHOD, client.getWireFormat(), pathBuf.toString(), request.index());
         if (request.routing() != null) {
             curlRequest.param("routing", request.routing());
         }
@@ -93,6 +94,6 @@ public class HttpIndexAction extends HttpAction {
         if (request.id() != null) {
             curlRequest.param("op_type", opType.getLowercase());
         }
-        return curlRequest;
+        return addFilterPath(curlRequest, "index", DOC_WRITE_FILTER_PATH);
     }
 }
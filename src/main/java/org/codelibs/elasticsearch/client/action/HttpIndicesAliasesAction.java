@@ -75,7 +75,7 @@ public class HttpIndicesAliasesAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final IndicesAliasesRequest request) {
         // RestIndicesAliasesAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_aliases");
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_aliases");
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
@@ -56,7 +56,7 @@ public class HttpIndicesExistsAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final IndicesExistsRequest request) {
         // RestIndicesExistsAction
-        final CurlRequest curlRequest = client.getCurlRequest(HEAD, null, request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(HEAD_METHOD, null, request.indices());
         return curlRequest;
     }
 }
@@ -45,7 +45,7 @@ public class HttpListTasksAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final ListTasksRequest request) {
         // RestListTasksAction
-        final CurlRequest curlRequest = client.getCurlRequest(GET, "/_tasks");
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, "/_tasks");
         curlRequest.param("detailed", String.valueOf(request.getDetailed()));
         curlRequest.param("parent_task_id", String.valueOf(request.getParentTaskId()));
         curlRequest.param("wait_for_completion", String.valueOf(request.getWaitForCompletion()));
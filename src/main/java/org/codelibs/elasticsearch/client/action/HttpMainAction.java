@@ -45,7 +45,7 @@ public class HttpMainAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final MainRequest request) {
         // RestMainAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_xpack");
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_xpack");
         return curlRequest;
     }
 }
@@ -59,7 +59,7 @@ public class HttpMultiGetAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final MultiGetRequest request) {
         // RestMultiGetAction
-        final CurlRequest curlRequest = client.getCurlRequest(GET, "/_mget");
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, "/_mget");
         curlRequest.param("refresh", Boolean.toString(request.refresh()));
         curlRequest.param("realtime", Boolean.toString(request.realtime()));
         if (request.preference() != null) {
@@ -55,7 +55,7 @@ public class HttpMultiSearchAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final MultiSearchRequest request) {
         // RestMultiSearchAction
-        final CurlRequest curlRequest = client.getCurlRequest(GET, ContentType.X_NDJSON, "/_msearch");
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, ContentType.X_NDJSON, "/_msearch");
         if (request.maxConcurrentSearchRequests() > 0) {
             curlRequest.param("max_concurrent_searches", Integer.toString(request.maxConcurrentSearchRequests()));
         }
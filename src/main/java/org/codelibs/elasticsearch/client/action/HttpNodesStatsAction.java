@@ -1843,7 +1843,7 @@ public class HttpNodesStatsAction extends HttpAction {
         if (metric.length() > 0) {
             buf.append('/').append(metric);
         }
-        final CurlRequest curlRequest = client.getCurlRequest(GET, buf.toString());
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, buf.toString());
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
@@ -46,7 +46,7 @@ public class HttpOpenIndexAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final OpenIndexRequest request) {
         // RestOpenIndexAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_open", request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_open", request.indices());
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
@@ -54,7 +54,7 @@ public class HttpPendingClusterTasksAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final PendingClusterTasksRequest request) {
         // RestPendingClusterTasksAction
-        final CurlRequest curlRequest = client.getCurlRequest(GET, "/_cluster/pending_tasks");
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, "/_cluster/pending_tasks");
         curlRequest.param("local", Boolean.toString(request.local()));
         if (request.masterNodeTimeout() != null) {
             curlRequest.param("master_timeout", request.masterNodeTimeout().toString());
@@ -60,7 +60,7 @@ public class HttpPutIndexTemplateAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final PutIndexTemplateRequest request) {
         // RestPutIndexTemplateAction
-        final CurlRequest curlRequest = client.getCurlRequest(PUT, "/_template/" + UrlUtils.encode(request.name()));
+        final CurlRequest curlRequest = client.getCurlRequest(PUT_METHOD, "/_template/" + UrlUtils.encode(request.name()));
         curlRequest.param("order", Integer.toString(request.order()));
         curlRequest.param("create", Boolean.toString(request.create()));
         if (request.masterNodeTimeout() != null) {
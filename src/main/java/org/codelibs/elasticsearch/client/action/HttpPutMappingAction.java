@@ -47,7 +47,7 @@ public class HttpPutMappingAction extends HttpAction {
     protected CurlRequest getCurlRequest(final PutMappingRequest request) {
         // RestPutMappingAction
         final String path = "/_mapping";
-        final CurlRequest curlRequest = client.getCurlRequest(PUT, path, request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(PUT_METHOD, path, request.indices());
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
@@ -56,7 +56,7 @@ public class HttpPutPipelineAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final PutPipelineRequest request) {
         // RestPutPipelineAction
-        final CurlRequest curlRequest = client.getCurlRequest(PUT, "/_ingest/pipeline/" + UrlUtils.encode(request.getId()));
+        final CurlRequest curlRequest = client.getCurlRequest(PUT_METHOD, "/_ingest/pipeline/" + UrlUtils.encode(request.getId()));
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
@@ -46,7 +46,7 @@ public class HttpPutRepositoryAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final PutRepositoryRequest request) {
         // RestPutRepositoryAction
-        final CurlRequest curlRequest = client.getCurlRequest(PUT, "/_snapshot/" + UrlUtils.encode(request.name()));
+        final CurlRequest curlRequest = client.getCurlRequest(PUT_METHOD, "/_snapshot/" + UrlUtils.encode(request.name()));
         curlRequest.param("verify", Boolean.toString(request.verify()));
         if (request.masterNodeTimeout() != null) {
             curlRequest.param("master_timeout", request.masterNodeTimeout().toString());
@@ -56,7 +56,7 @@ public class HttpPutStoredScriptAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final PutStoredScriptRequest request) {
         // RestPutStoredScriptAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_scripts/" + UrlUtils.encode(request.id()));
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_scripts/" + UrlUtils.encode(request.id()));
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
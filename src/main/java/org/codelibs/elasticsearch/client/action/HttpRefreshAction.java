@@ -45,7 +45,7 @@ public class HttpRefreshAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final RefreshRequest request) {
         // RestRefreshAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_refresh", request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_refresh", request.indices());
         return curlRequest;
     }
 }
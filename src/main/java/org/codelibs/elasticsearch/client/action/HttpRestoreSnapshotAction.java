@@ -53,7 +53,7 @@ public class HttpRestoreSnapshotAction extends HttpAction {
             pathBuf.append('/').append(UrlUtils.encode(request.snapshot()));
         }
         pathBuf.append('/').append("_restore");
-        final CurlRequest curlRequest = client.getCurlRequest(POST, pathBuf.toString());
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, pathBuf.toString());
         if (request.masterNodeTimeout() != null) {
             curlRequest.param("master_timeout", request.masterNodeTimeout().toString());
         }
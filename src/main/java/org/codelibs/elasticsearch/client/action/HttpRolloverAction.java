@@ -61,7 +61,7 @@ public class HttpRolloverAction extends HttpAction {
     protected CurlRequest getCurlRequest(final RolloverRequest request) {
         // RestRolloverAction
         final CurlRequest curlRequest =
-                client.getCurlRequest(POST,
+                client.getCurlRequest(POST_METHOD,
                         "/_rollover" + (request.getNewIndexName() != null ? "/" + UrlUtils.encode(request.getNewIndexName()) : ""),
                         request.getAlias());
         if (request.isDryRun()) {
@@ -15,44 +15,266 @@
  */
 package org.codelibs.elasticsearch.client.action;
 
+import static org.elasticsearch.common.xcontent.XContentParserUtils.ensureExpectedToken;
+
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.apache.lucene.search.TotalHits;
 
 import org.codelibs.curl.CurlRequest;
 import org.codelibs.elasticsearch.client.HttpClient;
+import org.codelibs.elasticsearch.client.HttpClient.ContentType;
+import org.codelibs.elasticsearch.client.curl.HttpCurlRequest;
+import org.codelibs.elasticsearch.client.io.LazySourceParser;
+import org.codelibs.elasticsearch.client.io.LazySourceParser.SlicedObject;
+import org.codelibs.elasticsearch.client.io.SourceDecoder;
+import org.codelibs.elasticsearch.client.search.DecodedHit;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.search.SearchAction;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchResponse.Clusters;
+import org.elasticsearch.action.search.SearchResponseSections;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.search.ShardSearchFailure;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.profile.SearchProfileShardResults;
+import org.elasticsearch.search.suggest.Suggest;
 
 public class HttpSearchAction extends HttpAction {
 
     protected final SearchAction action;
 
+    protected final boolean lazySource;
+
     public HttpSearchAction(final HttpClient client, final SearchAction action) {
         super(client);
         this.action = action;
+        lazySource = client.settings().getAsBoolean("http.lazy_source", false);
     }
 
     public void execute(final SearchRequest request, final ActionListener<SearchResponse> listener) {
-        getCurlRequest(request).body(getQuerySource(request)).execute(response -> {
-            try (final XContentParser parser = createParser(response)) {
-                final SearchResponse searchResponse = SearchResponse.fromXContent(parser);
-                if (searchResponse.getHits() == null) {
-                    listener.onFailure(toElasticsearchException(response, new ElasticsearchException("hits is null.")));
+        setQuerySource(getCurlRequest(request), request).execute(
+                response -> {
+                    try (final LazySourceParser lazyParser = lazySource ? createLazySourceParser(response) : null;
+                            final XContentParser parser = lazyParser != null ? lazyParser.parser() : createParser(response)) {
+                        final SearchResponse searchResponse =
+                                lazyParser != null ? parseSearchResponse(parser, lazyParser, null) : SearchResponse.fromXContent(parser);
+                        if (searchResponse.getHits() == null) {
+                            listener.onFailure(toElasticsearchException(response, new ElasticsearchException("hits is null.")));
+                        } else {
+                            listener.onResponse(searchResponse);
+                        }
+                    } catch (final Exception e) {
+                        listener.onFailure(toElasticsearchException(response, e));
+                    }
+                }, e -> unwrapElasticsearchException(listener, e));
+    }
+
+    // hits are passed to the consumer while parsing, and the response contains everything but hits
+    public void execute(final SearchRequest request, final Consumer<SearchHit> hitConsumer, final ActionListener<SearchResponse> listener) {
+        execute(request, lazySource, hitConsumer, listener);
+    }
+
+    // each _source is decoded into the target type from the response bytes
+    public <T> void execute(final SearchRequest request, final SourceDecoder<T> decoder, final Consumer<DecodedHit<T>> hitConsumer,
+            final ActionListener<SearchResponse> listener) {
+        execute(request, true, hit -> {
+            final T source = decodeSource(hit.getSourceRef(), decoder);
+            hit.sourceRef(null);
+            hitConsumer.accept(new DecodedHit<>(hit, source));
+        }, listener);
+    }
+
+    protected void execute(final SearchRequest request, final boolean lazy, final Consumer<SearchHit> hitConsumer,
+            final ActionListener<SearchResponse> listener) {
+        setQuerySource(getCurlRequest(request), request).execute(
+                response -> {
+                    final AtomicReference<RuntimeException> consumerFailure = new AtomicReference<>();
+                    try (final LazySourceParser lazyParser = lazy ? createLazySourceParser(response) : null;
+                            final XContentParser parser = lazyParser != null ? lazyParser.parser() : createParser(response)) {
+                        final SearchResponse searchResponse = parseSearchResponse(parser, lazyParser, hit -> {
+                            try {
+                                hitConsumer.accept(hit);
+                            } catch (final RuntimeException e) {
+                                consumerFailure.set(e);
+                                throw e;
+                            }
+                        });
+                        if (searchResponse.getHits() == null) {
+                            listener.onFailure(toElasticsearchException(response, new ElasticsearchException("hits is null.")));
+                        } else {
+                            listener.onResponse(searchResponse);
+                        }
+                    } catch (final Exception e) {
+                        if (consumerFailure.get() != null) {
+                            listener.onFailure(consumerFailure.get());
+                        } else {
+                            listener.onFailure(toElasticsearchException(response, e));
+                        }
+                    }
+                }, e -> unwrapElasticsearchException(listener, e));
+    }
+
+    // hits are kept in the response if hitConsumer is null
+    protected SearchResponse parseSearchResponse(final XContentParser parser, final LazySourceParser lazyParser,
+            final Consumer<SearchHit> hitConsumer) throws IOException {
+        // SearchResponse#innerFromXContent
+        XContentParser.Token token = parser.nextToken();
+        ensureExpectedToken(XContentParser.Token.START_OBJECT, token, parser::getTokenLocation);
+        SearchHits hits = null;
+        Aggregations aggregations = null;
+        Suggest suggest = null;
+        SearchProfileShardResults profile = null;
+        boolean timedOut = false;
+        Boolean terminatedEarly = null;
+        int numReducePhases = 1;
+        long tookInMillis = -1;
+        int totalShards = -1;
+        int successfulShards = -1;
+        int skippedShards = 0;
+        String scrollId = null;
+        final List<ShardSearchFailure> failures = new ArrayList<>();
+        Clusters clusters = Clusters.EMPTY;
+        String currentFieldName = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token.isValue()) {
+                if ("_scroll_id".equals(currentFieldName)) {
+                    scrollId = parser.text();
+                } else if ("took".equals(currentFieldName)) {
+                    tookInMillis = parser.longValue();
+                } else if ("timed_out".equals(currentFieldName)) {
+                    timedOut = parser.booleanValue();
+                } else if ("terminated_early".equals(currentFieldName)) {
+                    terminatedEarly = parser.booleanValue();
+                } else if ("num_reduce_phases".equals(currentFieldName)) {
+                    numReducePhases = parser.intValue();
+                }
+            } else if (token == XContentParser.Token.START_OBJECT) {
+                if ("hits".equals(currentFieldName)) {
+                    hits = parseSearchHits(parser, lazyParser, hitConsumer);
+                } else if (Aggregations.AGGREGATIONS_FIELD.equals(currentFieldName)) {
+                    aggregations = Aggregations.fromXContent(parser);
+                } else if (Suggest.NAME.equals(currentFieldName)) {
+                    suggest = Suggest.fromXContent(parser);
+                } else if (SearchProfileShardResults.PROFILE_FIELD.equals(currentFieldName)) {
+                    profile = SearchProfileShardResults.fromXContent(parser);
+                } else if ("_shards".equals(currentFieldName)) {
+                    while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                        if (token == XContentParser.Token.FIELD_NAME) {
+                            currentFieldName = parser.currentName();
+                        } else if ("total".equals(currentFieldName)) {
+                            totalShards = parser.intValue();
+                        } else if ("successful".equals(currentFieldName)) {
+                            successfulShards = parser.intValue();
+                        } else if ("skipped".equals(currentFieldName)) {
+                            skippedShards = parser.intValue();
+                        } else if ("failures".equals(currentFieldName) && token == XContentParser.Token.START_ARRAY) {
+                            while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                                failures.add(ShardSearchFailure.fromXContent(parser));
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else if ("_clusters".equals(currentFieldName)) {
+                    int total = -1;
+                    int successful = -1;
+                    int skipped = -1;
+                    while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                        if (token == XContentParser.Token.FIELD_NAME) {
+                            currentFieldName = parser.currentName();
+                        } else if ("total".equals(currentFieldName)) {
+                            total = parser.intValue();
+                        } else if ("successful".equals(currentFieldName)) {
+                            successful = parser.intValue();
+                        } else if ("skipped".equals(currentFieldName)) {
+                            skipped = parser.intValue();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    clusters = new Clusters(total, successful, skipped);
+                } else {
+                    parser.skipChildren();
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        final SearchResponseSections sections =
+                new SearchResponseSections(hits, aggregations, suggest, timedOut, terminatedEarly, profile, numReducePhases);
+        return new SearchResponse(sections, scrollId, totalShards, successfulShards, skippedShards, tookInMillis,
+                failures.toArray(new ShardSearchFailure[failures.size()]), clusters);
+    }
+
+    protected SearchHits parseSearchHits(final XContentParser parser, final LazySourceParser lazyParser,
+            final Consumer<SearchHit> hitConsumer) throws IOException {
+        // SearchHits#fromXContent
+        final List<SearchHit> hits = hitConsumer == null ? new ArrayList<>() : null;
+        final Consumer<SearchHit> consumer = hitConsumer == null ? hits::add : hitConsumer;
+        TotalHits totalHits = null;
+        float maxScore = 0f;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if ("total".equals(currentFieldName)) {
+                if (token == XContentParser.Token.START_OBJECT) {
+                    totalHits = SearchHits.parseTotalHitsFragment(parser);
                 } else {
-                    listener.onResponse(searchResponse);
+                    // rest_total_hits_as_int
+                    totalHits = new TotalHits(parser.longValue(), TotalHits.Relation.EQUAL_TO);
                 }
-            } catch (final Exception e) {
-                listener.onFailure(toElasticsearchException(response, e));
+            } else if ("max_score".equals(currentFieldName)) {
+                maxScore = token == XContentParser.Token.VALUE_NULL ? Float.NaN : parser.floatValue();
+            } else if ("hits".equals(currentFieldName) && token == XContentParser.Token.START_ARRAY) {
+                while (parser.nextToken() != XContentParser.Token.END_ARRAY) {
+                    consumer.accept(parseSearchHit(parser, lazyParser));
+                }
+            } else {
+                parser.skipChildren();
             }
-        }, e -> unwrapElasticsearchException(listener, e));
+        }
+        return new SearchHits(hits == null ? SearchHits.EMPTY : hits.toArray(new SearchHit[hits.size()]), totalHits, maxScore);
+    }
+
+    protected SearchHit parseSearchHit(final XContentParser parser, final LazySourceParser lazyParser) throws IOException {
+        if (lazyParser == null) {
+            return SearchHit.fromXContent(parser);
+        }
+        // _source is kept as a slice of the response and decoded on access
+        final SlicedObject slicedHit = lazyParser.sliceObject();
+        final SearchHit hit;
+        try (final XContentParser hitParser = lazyParser.createParser(slicedHit.getMetadata())) {
+            hit = SearchHit.fromXContent(hitParser);
+        }
+        if (slicedHit.getSource() != null) {
+            hit.sourceRef(slicedHit.getSource());
+        }
+        return hit;
+    }
+
+    protected CurlRequest setQuerySource(final CurlRequest curlRequest, final SearchRequest request) {
+        if (client.getWireFormat() == ContentType.JSON || request.source() == null) {
+            return curlRequest.body(getQuerySource(request));
+        }
+        return ((HttpCurlRequest) curlRequest).body(out -> writeXContent(request.source(), out));
     }
 
     protected String getQuerySource(final SearchRequest request) {
@@ -69,7 +291,7 @@ public class HttpSearchAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final SearchRequest request) {
         // RestSearchAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_search", request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, client.getWireFormat(), "/_search", request.indices());
         curlRequest.param("typed_keys", "true");
         curlRequest.param("batched_reduce_size", Integer.toString(request.getBatchedReduceSize()));
         curlRequest.param("pre_filter_shard_size", Integer.toString(request.getPreFilterShardSize()));
@@ -95,6 +317,6 @@ public class HttpSearchAction extends HttpAction {
             curlRequest.param("preference", request.preference());
         }
         curlRequest.param("ccs_minimize_roundtrips", Boolean.toString(request.isCcsMinimizeRoundtrips()));
-        return curlRequest;
+        return addFilterPath(curlRequest, "search", SEARCH_FILTER_PATH);
     }
 }
@@ -50,7 +50,11 @@ public class HttpSearchScrollAction extends HttpAction {
         getCurlRequest(request).body(source).execute(response -> {
             try (final XContentParser parser = createParser(response)) {
                 final SearchResponse scrollResponse = SearchResponse.fromXContent(parser);
-                listener.onResponse(scrollResponse);
+                if (scrollResponse.getHits() == null) {
+                    listener.onFailure(toElasticsearchException(response, new ElasticsearchException("hits is null.")));
+                } else {
+                    listener.onResponse(scrollResponse);
+                }
             } catch (final Exception e) {
                 listener.onFailure(toElasticsearchException(response, e));
             }
@@ -59,13 +63,13 @@ public class HttpSearchScrollAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final SearchScrollRequest request) {
         // RestSearchScrollAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_search/scroll");
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_search/scroll");
         if (request.scrollId() != null) {
             curlRequest.param("scroll_id", request.scrollId());
         }
         if (request.scroll() != null) {
             curlRequest.param("scroll", request.scroll().keepAlive().toString());
         }
-        return curlRequest;
+        return addFilterPath(curlRequest, "scroll", SEARCH_FILTER_PATH);
     }
 }
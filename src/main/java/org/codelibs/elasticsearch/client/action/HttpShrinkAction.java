@@ -47,7 +47,7 @@ public class HttpShrinkAction extends HttpAction {
     protected CurlRequest getCurlRequest(final ResizeRequest request) {
         // RestShrinkAction
         final CurlRequest curlRequest =
-                client.getCurlRequest(POST, "/_shrink/" + UrlUtils.encode(request.getTargetIndexRequest().index()),
+                client.getCurlRequest(POST_METHOD, "/_shrink/" + UrlUtils.encode(request.getTargetIndexRequest().index()),
                         request.getSourceIndex());
         return curlRequest;
     }
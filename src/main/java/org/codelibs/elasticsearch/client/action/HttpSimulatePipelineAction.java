@@ -63,7 +63,7 @@ public class HttpSimulatePipelineAction extends HttpAction {
         final String path =
                 request.getId() != null ? "/_ingest/pipeline/" + UrlUtils.encode(request.getId()) + "/_simulate"
                         : "/_ingest/pipeline/_simulate";
-        final CurlRequest curlRequest = client.getCurlRequest(POST, path);
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, path);
         curlRequest.param("verbose", String.valueOf(request.isVerbose()));
         return curlRequest;
     }
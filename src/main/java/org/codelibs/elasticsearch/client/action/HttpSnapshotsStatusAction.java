@@ -54,7 +54,7 @@ public class HttpSnapshotsStatusAction extends HttpAction {
             pathBuf.append('/').append(UrlUtils.joinAndEncode(",", request.snapshots()));
         }
         pathBuf.append("/_status");
-        final CurlRequest curlRequest = client.getCurlRequest(GET, pathBuf.toString());
+        final CurlRequest curlRequest = client.getCurlRequest(GET_METHOD, pathBuf.toString());
         curlRequest.param("ignore_unavailable", String.valueOf(request.ignoreUnavailable()));
         if (request.masterNodeTimeout() != null) {
             curlRequest.param("master_timeout", request.masterNodeTimeout().toString());
@@ -77,7 +77,7 @@ public class HttpSyncedFlushAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final SyncedFlushRequest request) {
         // RestSyncedFlushAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_flush/synced", request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_flush/synced", request.indices());
         return curlRequest;
     }
 
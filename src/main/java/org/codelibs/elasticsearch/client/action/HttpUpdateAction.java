@@ -20,6 +20,7 @@ import java.util.Locale;
 
 import org.codelibs.curl.CurlRequest;
 import org.codelibs.elasticsearch.client.HttpClient;
+import org.codelibs.elasticsearch.client.curl.HttpCurlRequest;
 import org.codelibs.elasticsearch.client.util.UrlUtils;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.ActionListener;
@@ -29,10 +30,8 @@ import org.elasticsearch.action.update.UpdateAction;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.common.bytes.BytesReference;
-import org.elasticsearch.common.xcontent.ToXContent;
-import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.xcontent.XContentParser;
-import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.index.VersionType;
 
 public class HttpUpdateAction extends HttpAction {
@@ -45,16 +44,17 @@ public class HttpUpdateAction extends HttpAction {
     }
 
     public void execute(final UpdateRequest request, final ActionListener<UpdateResponse> listener) {
-        String source = null;
-        try (final XContentBuilder builder = request.toXContent(JsonXContent.contentBuilder(), ToXContent.EMPTY_PARAMS)) {
-            builder.flush();
-            source = BytesReference.bytes(builder).utf8ToString();
+        // serialized before sending, so a failure is not taken for a host failure
+        final BytesStreamOutput out = new BytesStreamOutput();
+        try {
+            writeXContent(request, out);
         } catch (final IOException e) {
             throw new ElasticsearchException("Failed to parse a request.", e);
         }
-        getCurlRequest(request).body(source).execute(response -> {
+        final BytesReference source = out.bytes();
+        ((HttpCurlRequest) getCurlRequest(request)).body(source::writeTo).execute(response -> {
             try (final XContentParser parser = createParser(response)) {
-                final UpdateResponse updateResponse = UpdateResponse.fromXContent(parser);
+                final UpdateResponse updateResponse = ensureShardInfo(UpdateResponse.fromXContent(parser));
                 listener.onResponse(updateResponse);
             } catch (final Exception e) {
                 listener.onFailure(toElasticsearchException(response, e));
@@ -64,7 +64,8 @@ public class HttpUpdateAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final UpdateRequest request) {
         // RestUpdateAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_update/" + UrlUtils.encode(request.id()), request.index());
+        final CurlRequest curlRequest =
+                client.getCurlRequest(POST_METHOD, client.getWireFormat(), "/_update/" + UrlUtils.encode(request.id()), request.index());
         if (request.routing() != null) {
             curlRequest.param("routing", request.routing());
         }
@@ -87,6 +88,6 @@ public class HttpUpdateAction extends HttpAction {
         if (!VersionType.INTERNAL.equals(request.versionType())) {
             curlRequest.param("version_type", request.versionType().name().toLowerCase(Locale.ROOT));
         }
-        return curlRequest;
+        return addFilterPath(curlRequest, "update", DOC_WRITE_FILTER_PATH);
     }
 }
@@ -59,7 +59,7 @@ public class HttpUpdateSettingsAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final UpdateSettingsRequest request) {
         // RestUpdateSettingsAction
-        final CurlRequest curlRequest = client.getCurlRequest(PUT, "/_settings", request.indices());
+        final CurlRequest curlRequest = client.getCurlRequest(PUT_METHOD, "/_settings", request.indices());
         if (request.timeout() != null) {
             curlRequest.param("timeout", request.timeout().toString());
         }
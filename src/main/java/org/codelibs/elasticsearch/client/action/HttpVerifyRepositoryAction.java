@@ -46,7 +46,7 @@ public class HttpVerifyRepositoryAction extends HttpAction {
 
     protected CurlRequest getCurlRequest(final VerifyRepositoryRequest request) {
         // RestVerifyRepositoryAction
-        final CurlRequest curlRequest = client.getCurlRequest(POST, "/_snapshot/" + UrlUtils.encode(request.name()) + "/_verify");
+        final CurlRequest curlRequest = client.getCurlRequest(POST_METHOD, "/_snapshot/" + UrlUtils.encode(request.name()) + "/_verify");
         if (request.masterNodeTimeout() != null) {
             curlRequest.param("master_timeout", request.masterNodeTimeout().toString());
         }
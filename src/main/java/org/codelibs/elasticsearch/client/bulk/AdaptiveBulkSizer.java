@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.bulk;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+// additive increase, multiplicative decrease
+public class AdaptiveBulkSizer {
+
+    private static final Logger logger = LogManager.getLogger(AdaptiveBulkSizer.class);
+
+    protected final long minBulkSize;
+
+    protected final long maxBulkSize;
+
+    protected final long bulkSizeIncrement;
+
+    protected final int maxConcurrentRequests;
+
+    protected final long targetLatency;
+
+    protected final int concurrencyIncreaseInterval;
+
+    protected volatile long bulkSize;
+
+    protected volatile int concurrentRequests;
+
+    protected int healthyResponses = 0;
+
+    public AdaptiveBulkSizer(final long minBulkSize, final long maxBulkSize, final long initialBulkSize,
+            final int initialConcurrentRequests, final int maxConcurrentRequests, final long targetLatencyInMillis) {
+        this.minBulkSize = Math.max(1, minBulkSize);
+        this.maxBulkSize = Math.max(this.minBulkSize, maxBulkSize);
+        this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+        targetLatency = TimeUnit.MILLISECONDS.toNanos(targetLatencyInMillis);
+        bulkSizeIncrement = Math.max(this.minBulkSize, (this.maxBulkSize - this.minBulkSize) / 16);
+        concurrencyIncreaseInterval = 4;
+        bulkSize = Math.min(Math.max(initialBulkSize, this.minBulkSize), this.maxBulkSize);
+        concurrentRequests = Math.min(Math.max(initialConcurrentRequests, 1), this.maxConcurrentRequests);
+    }
+
+    public long getBulkSize() {
+        return bulkSize;
+    }
+
+    public int getConcurrentRequests() {
+        return concurrentRequests;
+    }
+
+    public synchronized void onResponse(final long roundTripNanos, final long tookInMillis, final int numberOfItems, final int rejectedItems) {
+        if (rejectedItems > 0) {
+            // the cluster queues are full
+            decrease(rejectedItems * 2 >= numberOfItems ? 0.5 : 0.75, true);
+        } else if (TimeUnit.MILLISECONDS.toNanos(tookInMillis) > targetLatency) {
+            // the cluster is slow to process a batch of this size
+            decrease(0.75, false);
+        } else if (roundTripNanos > targetLatency) {
+            // the time is spent in queues or on the wire
+            decrease(1.0, true);
+        } else {
+            increase();
+        }
+    }
+
+    public synchronized void onRejected() {
+        decrease(0.5, true);
+    }
+
+    protected void increase() {
+        bulkSize = Math.min(bulkSize + bulkSizeIncrement, maxBulkSize);
+        healthyResponses++;
+        if (healthyResponses >= concurrencyIncreaseInterval && concurrentRequests < maxConcurrentRequests) {
+            healthyResponses = 0;
+            concurrentRequests++;
+            if (logger.isDebugEnabled()) {
+                logger.debug("Increased concurrent bulk requests to {}.", concurrentRequests);
+            }
+        }
+    }
+
+    protected void decrease(final double factor, final boolean concurrency) {
+        healthyResponses = 0;
+        bulkSize = Math.max((long) (bulkSize * factor), minBulkSize);
+        if (concurrency && concurrentRequests > 1) {
+            concurrentRequests = factor < 1.0 ? Math.max(1, concurrentRequests / 2) : concurrentRequests - 1;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Decreased bulk size to {} bytes and concurrent bulk requests to {}.", bulkSize, concurrentRequests);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.bulk;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.codelibs.curl.Curl.Method;
+import org.codelibs.curl.CurlResponse;
+import org.codelibs.elasticsearch.client.HttpClient;
+import org.codelibs.elasticsearch.client.host.HostSniffer;
+import org.codelibs.elasticsearch.client.util.UrlUtils;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.Version;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsGroup;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cluster.metadata.MetaDataCreateIndexService;
+import org.elasticsearch.cluster.routing.Murmur3HashFunction;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+public class BulkShardRouter {
+
+    protected final HttpClient client;
+
+    protected final long refreshInterval;
+
+    protected final String scheme;
+
+    protected final Map<String, IndexRouting> indexRoutings = new ConcurrentHashMap<>();
+
+    protected volatile Map<String, String> nodeUrls = null;
+
+    protected volatile long nodeUrlsExpiration = 0L;
+
+    public BulkShardRouter(final HttpClient client, final Settings settings) {
+        this.client = client;
+        refreshInterval = settings.getAsTime("http.bulk.shard_routing.refresh_interval", TimeValue.timeValueMinutes(1)).nanos();
+        scheme = client.getHosts().get(0).getUrl().startsWith("https:") ? "https" : "http";
+    }
+
+    // returns the slots of the request grouped by the url of the node holding the primary, or null if unknown
+    public void route(final BulkRequest request, final ActionListener<Map<String, List<Integer>>> listener) {
+        final long now = System.nanoTime();
+        final Set<String> staleIndices = new HashSet<>();
+        for (final DocWriteRequest<?> req : request.requests()) {
+            final IndexRouting indexRouting = indexRoutings.get(req.index());
+            if (indexRouting == null || now - indexRouting.expiration > 0) {
+                staleIndices.add(req.index());
+            }
+        }
+        final boolean staleNodes = nodeUrls == null || now - nodeUrlsExpiration > 0;
+        if (staleIndices.isEmpty() && !staleNodes) {
+            listener.onResponse(route(request));
+            return;
+        }
+        final ActionListener<Void> onLoaded = ActionListener.wrap(v -> listener.onResponse(route(request)), listener::onFailure);
+        if (staleNodes) {
+            loadNodeUrls(ActionListener.wrap(v -> loadIndexRoutings(staleIndices, onLoaded), listener::onFailure));
+        } else {
+            loadIndexRoutings(staleIndices, onLoaded);
+        }
+    }
+
+    protected Map<String, List<Integer>> route(final BulkRequest request) {
+        final Map<String, List<Integer>> routes = new LinkedHashMap<>();
+        final Map<String, String> urls = nodeUrls;
+        final List<DocWriteRequest<?>> requests = request.requests();
+        for (int i = 0; i < requests.size(); i++) {
+            final DocWriteRequest<?> req = requests.get(i);
+            String url = null;
+            final IndexRouting indexRouting = indexRoutings.get(req.index());
+            // an auto-generated id or an ingest pipeline decides the shard on the coordinating node
+            if (indexRouting != null && indexRouting.primaryNodeIds != null && req.id() != null
+                    && !(req instanceof IndexRequest && ((IndexRequest) req).getPipeline() != null)) {
+                final String nodeId = indexRouting.primaryNodeIds[indexRouting.shardId(req.id(), req.routing())];
+
+                if (nodeId != null && urls != null) {
+                    url = urls.get(nodeId);
+                }
+            }
+            routes.computeIfAbsent(url, k -> new ArrayList<>()).add(i);
+        }
+        return routes;
+    }
+
+    protected void loadNodeUrls(final ActionListener<Void> listener) {
+        client.getCurlRequest(Method.GET, "/_nodes/http").param("filter_path", "nodes.*.http.publish_address").execute(response -> {
+            final Map<String, String> urls = new HashMap<>();
+            try {
+                final Map<String, Object> map = parseResponse(response);
+                @SuppressWarnings("unchecked")
+                final Map<String, Object> nodes = (Map<String, Object>) map.getOrDefault("nodes", Collections.emptyMap());
+                for (final Map.Entry<String, Object> entry : nodes.entrySet()) {
+                    @SuppressWarnings("unchecked")
+                    final Map<String, Object> http = (Map<String, Object>) ((Map<String, Object>) entry.getValue()).get("http");
+                    if (http != null && http.get("publish_address") != null) {
+                        urls.put(entry.getKey(), scheme + "://" + HostSniffer.parsePublishAddress(http.get("publish_address").toString()));
+                    }
+                }
+            } catch (final Exception e) {
+                listener.onFailure(e);
+                return;
+            }
+            nodeUrls = urls;
+            nodeUrlsExpiration = System.nanoTime() + refreshInterval;
+            listener.onResponse(null);
+        }, listener::onFailure);
+    }
+
+    protected void loadIndexRoutings(final Set<String> indices, final ActionListener<Void> listener) {
+        if (indices.isEmpty()) {
+            listener.onResponse(null);
+            return;
+        }
+        final String[] names = indices.toArray(new String[indices.size()]);
+        client.admin().cluster().prepareSearchShards(names).setIndicesOptions(IndicesOptions.lenientExpandOpen())
+                .execute(ActionListener.wrap(shardsResponse -> loadIndexMetaData(names, ActionListener.wrap(metaData -> {
+                    updateIndexRoutings(indices, shardsResponse, metaData);
+                    listener.onResponse(null);
+                }, listener::onFailure)), listener::onFailure));
+    }
+
+    protected void loadIndexMetaData(final String[] indices, final ActionListener<Map<String, Object>> listener) {
+        client.getCurlRequest(Method.GET, "/_cluster/state/metadata/" + UrlUtils.joinAndEncode(",", indices))
+                .param("ignore_unavailable", "true")
+                .param("allow_no_indices", "true")
+                .param("flat_settings", "true")
+                .param("filter_path", "metadata.indices.*.routing_num_shards,metadata.indices.*.settings")
+                .execute(
+                        response -> {
+                            final Map<String, Object> indexMap;
+                            try {
+                                @SuppressWarnings("unchecked")
+                                final Map<String, Object> metaData =
+                                        (Map<String, Object>) parseResponse(response).getOrDefault("metadata", Collections.emptyMap());
+                                @SuppressWarnings("unchecked")
+                                final Map<String, Object> value =
+                                        (Map<String, Object>) metaData.getOrDefault("indices", Collections.emptyMap());
+                                indexMap = value;
+                            } catch (final Exception e) {
+                                listener.onFailure(e);
+                                return;
+                            }
+                            listener.onResponse(indexMap);
+                        }, listener::onFailure);
+    }
+
+    protected void updateIndexRoutings(final Set<String> indices, final ClusterSearchShardsResponse shardsResponse,
+            final Map<String, Object> metaData) {
+        final long expiration = System.nanoTime() + refreshInterval;
+        final Map<String, Map<Integer, String>> primaries = new HashMap<>();
+        for (final ClusterSearchShardsGroup group : shardsResponse.getGroups()) {
+            for (final ShardRouting shard : group.getShards()) {
+                if (shard.primary() && shard.assignedToNode()) {
+                    primaries.computeIfAbsent(shard.getIndexName(), k -> new HashMap<>()).put(shard.id(), shard.currentNodeId());
+                }
+            }
+        }
+        for (final String index : indices) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> indexMetaData = (Map<String, Object>) metaData.get(index);
+            final int routingNumShards = getRoutingNumShards(indexMetaData);
+            if (routingNumShards <= 0) {
+                // an alias, a missing index, a date math expression or a resized index
+                indexRoutings.put(index, new IndexRouting(0, 0, 1, null, expiration));
+                continue;
+            }
+            // flat_settings
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> settings = (Map<String, Object>) indexMetaData.getOrDefault("settings", Collections.emptyMap());
+            final int numberOfShards = Integer.parseInt(settings.getOrDefault("index.number_of_shards", "1").toString());
+            final int routingPartitionSize = Integer.parseInt(settings.getOrDefault("index.routing_partition_size", "1").toString());
+            final String[] primaryNodeIds = new String[numberOfShards];
+            primaries.getOrDefault(index, Collections.emptyMap()).forEach((shardId, nodeId) -> {
+                if (shardId < numberOfShards) {
+                    primaryNodeIds[shardId] = nodeId;
+                }
+            });
+            indexRoutings.put(index, new IndexRouting(numberOfShards, routingNumShards, routingPartitionSize, primaryNodeIds, expiration));
+        }
+    }
+
+    protected int getRoutingNumShards(final Map<String, Object> indexMetaData) {
+        if (indexMetaData == null) {
+            return 0;
+        }
+        if (indexMetaData.get("routing_num_shards") != null) {
+            return ((Number) indexMetaData.get("routing_num_shards")).intValue();
+        }
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> settings = (Map<String, Object>) indexMetaData.getOrDefault("settings", Collections.emptyMap());
+        if (settings.get("index.number_of_routing_shards") != null) {
+            return Integer.parseInt(settings.get("index.number_of_routing_shards").toString());
+        }
+        if (settings.get("index.resize.source.uuid") != null || settings.get("index.number_of_shards") == null
+                || settings.get("index.version.created") == null) {
+            // the routing shards of a shrunk or split index are not exposed
+            return 0;
+        }
+        // MetaDataCreateIndexService#calculateNumRoutingShards
+        return MetaDataCreateIndexService.calculateNumRoutingShards(Integer.parseInt(settings.get("index.number_of_shards").toString()),
+                Version.fromId(Integer.parseInt(settings.get("index.version.created").toString())));
+    }
+
+    protected Map<String, Object> parseResponse(final CurlResponse response) throws Exception {
+        if (response.getHttpStatusCode() != 200) {
+            throw new ElasticsearchException("Unexpected status " + response.getHttpStatusCode() + ": " + response.getContentAsString());
+        }
+        String contentType = response.getHeaderValue("Content-Type");
+        if (contentType == null) {
+            contentType = "application/json";
+        }
+        try (final InputStream in = response.getContentAsStream()) {
+            return XContentHelper.convertToMap(XContentType.fromMediaTypeOrFormat(contentType).xContent(), in, false);
+        }
+    }
+
+    // returns -1 if the routing of the index has not been loaded
+    public int getShardId(final String index, final String id, final String routing) {
+        final IndexRouting indexRouting = indexRoutings.get(index);
+        return indexRouting == null ? -1 : indexRouting.shardId(id, routing);
+    }
+
+    public void clear() {
+        indexRoutings.clear();
+        nodeUrls = null;
+    }
+
+    protected static class IndexRouting {
+
+        protected final int numberOfShards;
+
+        protected final int routingNumShards;
+
+        protected final int routingPartitionSize;
+
+        protected final String[] primaryNodeIds;
+
+        protected final long expiration;
+
+        protected IndexRouting(final int numberOfShards, final int routingNumShards, final int routingPartitionSize,
+                final String[] primaryNodeIds, final long expiration) {
+            this.numberOfShards = numberOfShards;
+            this.routingNumShards = routingNumShards;
+            this.routingPartitionSize = routingPartitionSize;
+            this.primaryNodeIds = primaryNodeIds;
+            this.expiration = expiration;
+        }
+
+        // OperationRouting#generateShardId
+        protected int shardId(final String id, final String routing) {
+            final String effectiveRouting = routing != null ? routing : id;
+            final int partitionOffset = routingPartitionSize == 1 ? 0 : Math.floorMod(Murmur3HashFunction.hash(id), routingPartitionSize);
+            final int hash = Murmur3HashFunction.hash(effectiveRouting) + partitionOffset;
+            return Math.floorMod(hash, routingNumShards) / (routingNumShards / numberOfShards);
+        }
+    }
+}
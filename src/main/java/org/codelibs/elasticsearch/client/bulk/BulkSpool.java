@@ -0,0 +1,324 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.bulk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefIterator;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.bytes.BytesReference;
+
+// append-only segmented log of NDJSON bulk bodies: [length][crc32][data]...
+public class BulkSpool implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger(BulkSpool.class);
+
+    protected static final String SEGMENT_PREFIX = "segment-";
+
+    protected static final String SEGMENT_SUFFIX = ".log";
+
+    protected static final String CHECKPOINT_FILE = "checkpoint";
+
+    protected static final int HEADER_SIZE = 8;
+
+    protected static final int CHECKPOINT_SIZE = 20;
+
+    protected final Path directory;
+
+    protected final long maxSize;
+
+    protected final long segmentSize;
+
+    protected final boolean sync;
+
+    // segment number -> size
+    protected final TreeMap<Long, Long> segments = new TreeMap<>();
+
+    protected FileChannel writer;
+
+    protected long readSegment;
+
+    protected long readPosition;
+
+    protected boolean closed = false;
+
+    public BulkSpool(final Path directory, final long maxSize, final long segmentSize, final boolean sync) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.segmentSize = Math.min(segmentSize, maxSize);
+        this.sync = sync;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    protected void recover() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (final Path path : stream) {
+                final String name = path.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())),
+                            Files.size(path));
+                } catch (final NumberFormatException e) {
+                    logger.warn("Unknown file in the spool: {}", path);
+                }
+            }
+        }
+        readCheckpoint();
+        while (!segments.isEmpty() && segments.firstKey() < readSegment) {
+            Files.deleteIfExists(getSegmentPath(segments.pollFirstEntry().getKey()));
+        }
+        if (segments.isEmpty()) {
+            readSegment = 0;
+            readPosition = 0;
+            segments.put(0L, 0L);
+        } else if (segments.firstKey() > readSegment) {
+            readSegment = segments.firstKey();
+            readPosition = 0;
+        }
+        // only the last segment can end with a partially written record
+        final long last = segments.lastKey();
+        final Path path = getSegmentPath(last);
+        writer = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final long validSize = validate(writer, last == readSegment ? readPosition : 0);
+        if (validSize < writer.size()) {
+            logger.warn("Truncating {} from {} to {} bytes.", path, writer.size(), validSize);
+            writer.truncate(validSize);
+            writer.force(true);
+        }
+        writer.position(validSize);
+        segments.put(last, validSize);
+        if (last == readSegment && readPosition > validSize) {
+            readPosition = validSize;
+        }
+    }
+
+    protected long validate(final FileChannel channel, final long from) throws IOException {
+        final long size = channel.size();
+        long position = from;
+        while (position + HEADER_SIZE <= size) {
+            final ByteBuffer header = readHeader(channel, position);
+            final int length = header.getInt(0);
+            if (length < 0 || position + HEADER_SIZE + length > size
+                    || crc32(channel.map(MapMode.READ_ONLY, position + HEADER_SIZE, length)) != header.getInt(4)) {
+                break;
+            }
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    public synchronized void append(final BytesReference data) throws IOException {
+        ensureOpen();
+        final long recordSize = HEADER_SIZE + data.length();
+        if (size() + recordSize > maxSize) {
+            throw new ElasticsearchException("The spool in " + directory + " is full.");
+        }
+        if (writer.position() > 0 && writer.position() + recordSize > segmentSize) {
+            rollSegment();
+        }
+        final List<ByteBuffer> buffers = new ArrayList<>();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        buffers.add(header);
+        final CRC32 crc = new CRC32();
+        final BytesRefIterator iterator = data.iterator();
+        BytesRef ref;
+        while ((ref = iterator.next()) != null) {
+            crc.update(ref.bytes, ref.offset, ref.length);
+            buffers.add(ByteBuffer.wrap(ref.bytes, ref.offset, ref.length));
+        }
+        header.putInt(0, data.length()).putInt(4, (int) crc.getValue());
+        final ByteBuffer[] srcs = buffers.toArray(new ByteBuffer[buffers.size()]);
+        final long start = writer.position();
+        try {
+            long remaining = recordSize;
+            while (remaining > 0) {
+                remaining -= writer.write(srcs);
+            }
+            if (sync) {
+                writer.force(false);
+            }
+        } catch (final IOException e) {
+            writer.truncate(start);
+            writer.position(start);
+            throw e;
+        }
+        segments.put(segments.lastKey(), writer.position());
+    }
+
+    // returns the oldest record that is not committed, or null if the spool is empty
+    public synchronized Record peek() throws IOException {
+        ensureOpen();
+        while (true) {
+            final long size = segments.get(readSegment);
+            if (readPosition + HEADER_SIZE <= size) {
+                break;
+            }
+            final Long next = segments.higherKey(readSegment);
+            if (next == null) {
+                return null;
+            }
+            readSegment = next;
+            readPosition = 0;
+        }
+        try (final FileChannel channel = FileChannel.open(getSegmentPath(readSegment), StandardOpenOption.READ)) {
+            final ByteBuffer header = readHeader(channel, readPosition);
+            final int length = header.getInt(0);
+            final ByteBuffer data = channel.map(MapMode.READ_ONLY, readPosition + HEADER_SIZE, length);
+            if (crc32(data) != header.getInt(4)) {
+                throw new ElasticsearchException("Corrupted record at " + readPosition + " in " + getSegmentPath(readSegment));
+            }
+            return new Record(readSegment, readPosition + HEADER_SIZE + length, data);
+        }
+    }
+
+    public synchronized void commit(final Record record) throws IOException {
+        ensureOpen();
+        readSegment = record.segment;
+        readPosition = record.nextPosition;
+        if (isEmpty() && readPosition > 0) {
+            // start a new segment so that the drained one can be removed
+            rollSegment();
+            readSegment = segments.lastKey();
+            readPosition = 0;
+        }
+        writeCheckpoint();
+        // consumed segments are not needed any more
+        while (segments.firstKey() < readSegment) {
+            Files.deleteIfExists(getSegmentPath(segments.pollFirstEntry().getKey()));
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return readSegment == segments.lastKey() && readPosition >= segments.get(readSegment);
+    }
+
+    public synchronized long size() {
+        long size = -readPosition;
+        for (final long value : segments.values()) {
+            size += value;
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            writer.close();
+        }
+    }
+
+    protected void rollSegment() throws IOException {
+        writer.close();
+        final long next = segments.lastKey() + 1;
+        writer = FileChannel.open(getSegmentPath(next), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.put(next, 0L);
+    }
+
+    protected void readCheckpoint() throws IOException {
+        final Path path = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.capacity() != CHECKPOINT_SIZE || crc32(ByteBuffer.wrap(buffer.array(), 0, 16)) != buffer.getInt(16)) {
+            // replaying from the start is safer than skipping records
+            logger.warn("Ignoring the corrupted checkpoint: {}", path);
+            return;
+        }
+        readSegment = buffer.getLong(0);
+        readPosition = buffer.getLong(8);
+    }
+
+    protected void writeCheckpoint() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(CHECKPOINT_SIZE);
+        buffer.putLong(0, readSegment).putLong(8, readPosition);
+        buffer.putInt(16, crc32(ByteBuffer.wrap(buffer.array(), 0, 16)));
+        final Path tempPath = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (final FileChannel channel =
+                FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        }
+        Files.move(tempPath, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    protected ByteBuffer readHeader(final FileChannel channel, final long position) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, position + header.position()) < 0) {
+                throw new ElasticsearchException("Unexpected end of the spool segment at " + position);
+            }
+        }
+        return header;
+    }
+
+    protected int crc32(final ByteBuffer buffer) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+    protected Path getSegmentPath(final long segment) {
+        return directory.resolve(String.format(Locale.ROOT, "%s%019d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    protected void ensureOpen() {
+        if (closed) {
+            throw new ElasticsearchException("The spool in " + directory + " is already closed.");
+        }
+    }
+
+    public static class Record {
+
+        protected final long segment;
+
+        protected final long nextPosition;
+
+        protected final ByteBuffer data;
+
+        protected Record(final long segment, final long nextPosition, final ByteBuffer data) {
+            this.segment = segment;
+            this.nextPosition = nextPosition;
+            this.data = data;
+        }
+
+        public ByteBuffer getData() {
+            return data.duplicate();
+        }
+    }
+}
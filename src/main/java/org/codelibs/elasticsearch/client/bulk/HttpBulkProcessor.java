@@ -0,0 +1,694 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.bulk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.client.HttpClient;
+import org.codelibs.elasticsearch.client.action.HttpBulkAction;
+import org.codelibs.elasticsearch.client.curl.HttpCurlRequest.NoResponseException;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkAction;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.index.seqno.SequenceNumbers;
+import org.elasticsearch.rest.RestStatus;
+
+public class HttpBulkProcessor implements Closeable {
+
+    public interface Listener {
+
+        void beforeBulk(long executionId, BulkRequest request);
+
+        void afterBulk(long executionId, BulkRequest request, BulkResponse response);
+
+        void afterBulk(long executionId, BulkRequest request, Throwable failure);
+
+        default void afterSpool(final long executionId, final BulkRequest request) {
+            // nothing
+        }
+
+        default void afterSpooledBulk(final long executionId, final BulkResponse response) {
+            // nothing
+        }
+
+        default void afterSpooledBulk(final long executionId, final Throwable failure) {
+            // nothing
+        }
+    }
+
+    private static final Logger logger = LogManager.getLogger(HttpBulkProcessor.class);
+
+    protected final HttpClient client;
+
+    protected final Listener listener;
+
+    protected final int bulkActions;
+
+    protected final long bulkSize;
+
+    protected final int concurrentRequests;
+
+    protected final ResizableSemaphore semaphore;
+
+    protected final AdaptiveBulkSizer sizer;
+
+    protected int permits;
+
+    protected final RefreshPolicy refreshPolicy;
+
+    protected final AtomicLong executionIdGenerator = new AtomicLong();
+
+    protected final ScheduledFuture<?> flushFuture;
+
+    protected final BulkSpool spool;
+
+    protected final ScheduledFuture<?> drainFuture;
+
+    protected final AtomicBoolean draining = new AtomicBoolean(false);
+
+    protected final BiFunction<UpdateRequest, UpdateRequest, UpdateRequest> updateMerger;
+
+    // coalescing key -> position in the current bulk request
+    protected final Map<String, Integer> pendingUpdates = new HashMap<>();
+
+    // size change of the merged updates, which BulkRequest does not see
+    protected long mergedSizeInBytes = 0;
+
+    protected BulkRequest bulkRequest;
+
+    protected volatile boolean closed = false;
+
+    protected HttpBulkProcessor(final Builder builder) {
+        client = builder.client;
+        listener = builder.listener;
+        bulkActions = builder.bulkActions;
+        bulkSize = builder.bulkSize.getBytes();
+        concurrentRequests = builder.concurrentRequests;
+        if (builder.minBulkSize != null) {
+            sizer =
+                    new AdaptiveBulkSizer(builder.minBulkSize.getBytes(), builder.maxBulkSize.getBytes(), bulkSize, concurrentRequests,
+                            concurrentRequests > 0 ? Math.max(builder.maxConcurrentRequests, concurrentRequests) : 1,
+                            builder.targetLatency.millis());
+        } else {
+            sizer = null;
+        }
+        permits = concurrentRequests > 0 ? concurrentRequests : 1;
+        semaphore = new ResizableSemaphore(permits);
+        refreshPolicy = builder.refreshPolicy;
+        updateMerger = builder.updateMerger;
+        bulkRequest = newBulkRequest();
+        if (builder.flushInterval != null) {
+            final long interval = builder.flushInterval.millis();
+            flushFuture = client.getScheduler().scheduleWithFixedDelay(this::flushIfIdle, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            flushFuture = null;
+        }
+        if (builder.spoolDirectory != null) {
+            try {
+                spool =
+                        new BulkSpool(builder.spoolDirectory, builder.spoolSize.getBytes(), builder.spoolSegmentSize.getBytes(),
+                                builder.spoolSync);
+            } catch (final IOException e) {
+                throw new ElasticsearchException("Failed to open the spool in " + builder.spoolDirectory, e);
+            }
+            // records left by a previous run are drained first
+            final long interval = builder.spoolDrainInterval.millis();
+            drainFuture = client.getScheduler().scheduleWithFixedDelay(this::drainIfIdle, 0, interval, TimeUnit.MILLISECONDS);
+        } else {
+            spool = null;
+            drainFuture = null;
+        }
+    }
+
+    public static Builder builder(final HttpClient client, final Listener listener) {
+        return new Builder(client, listener);
+    }
+
+    public HttpBulkProcessor add(final DocWriteRequest<?> request) {
+        final BulkRequest bulkToExecute;
+        synchronized (this) {
+            ensureOpen();
+            addRequest(request);
+            if (!isOverTheLimit()) {
+                return this;
+            }
+            bulkToExecute = swapBulkRequest();
+        }
+        execute(bulkToExecute);
+        return this;
+    }
+
+    public void flush() {
+        final BulkRequest bulkToExecute;
+        synchronized (this) {
+            ensureOpen();
+            if (bulkRequest.numberOfActions() == 0) {
+                return;
+            }
+            bulkToExecute = swapBulkRequest();
+        }
+        execute(bulkToExecute);
+    }
+
+    public boolean awaitClose(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final BulkRequest bulkToExecute;
+        synchronized (this) {
+            if (closed) {
+                return true;
+            }
+            closed = true;
+            if (flushFuture != null) {
+                flushFuture.cancel(false);
+            }
+            if (drainFuture != null) {
+                drainFuture.cancel(false);
+            }
+            bulkToExecute = bulkRequest.numberOfActions() > 0 ? swapBulkRequest() : null;
+        }
+        if (bulkToExecute != null) {
+            execute(bulkToExecute);
+        }
+        final int total;
+        synchronized (this) {
+            total = permits;
+        }
+        try {
+            if (semaphore.tryAcquire(total, timeout, unit)) {
+                semaphore.release(total);
+                return true;
+            }
+            return false;
+        } finally {
+            if (spool != null) {
+                try {
+                    spool.close();
+                } catch (final IOException e) {
+                    logger.warn("Failed to close the spool.", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            awaitClose(0, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected void flushIfIdle() {
+        // the scheduler thread is shared, so never wait for a permit or a response here
+        final BulkRequest bulkToExecute;
+        synchronized (this) {
+            if (closed || bulkRequest.numberOfActions() == 0 || !semaphore.tryAcquire()) {
+                return;
+            }
+            bulkToExecute = swapBulkRequest();
+        }
+        try {
+            // nobody waits for a periodic flush, and the held permit keeps the next bulk back
+            client.getExecutor().execute(() -> doExecute(bulkToExecute, false));
+        } catch (final RejectedExecutionException e) {
+            try {
+                listener.afterBulk(executionIdGenerator.incrementAndGet(), bulkToExecute, e);
+            } finally {
+                semaphore.release();
+            }
+        }
+    }
+
+    protected void addRequest(final DocWriteRequest<?> request) {
+        if (updateMerger == null) {
+            bulkRequest.add(request);
+            return;
+        }
+        final String key = request.index() + '\u0000' + request.id() + '\u0000' + request.routing();
+        if (request instanceof UpdateRequest && isMergeable((UpdateRequest) request)) {
+            final Integer slot = pendingUpdates.get(key);
+            if (slot != null) {
+                final List<DocWriteRequest<?>> requests = bulkRequest.requests();
+                final UpdateRequest current = (UpdateRequest) requests.get(slot);
+                final UpdateRequest merged = updateMerger.apply(current, (UpdateRequest) request);
+                requests.set(slot, merged);
+                mergedSizeInBytes += estimatedSizeInBytes(merged) - estimatedSizeInBytes(current);
+                return;
+            }
+            pendingUpdates.put(key, bulkRequest.numberOfActions());
+        } else {
+            // later updates must not be moved before this operation
+            pendingUpdates.remove(key);
+        }
+        bulkRequest.add(request);
+    }
+
+    // in the same way as BulkRequest
+    protected static long estimatedSizeInBytes(final UpdateRequest request) {
+        long size = 0;
+        if (request.doc() != null) {
+            size += request.doc().source().length();
+        }
+        if (request.upsertRequest() != null) {
+            size += request.upsertRequest().source().length();
+        }
+        if (request.script() != null) {
+            size += request.script().getIdOrCode().length() * 2;
+        }
+        return size;
+    }
+
+    protected boolean isMergeable(final UpdateRequest request) {
+        return request.id() != null && request.doc() != null && request.script() == null && !request.scriptedUpsert()
+                && request.version() == Versions.MATCH_ANY && request.ifSeqNo() == SequenceNumbers.UNASSIGNED_SEQ_NO;
+    }
+
+    // merges partial documents in the same way as the update API
+    // for a missing document, the last upsert wins, and docAsUpsert applies if any of the updates sets it
+    public static UpdateRequest mergeUpdates(final UpdateRequest current, final UpdateRequest next) {
+        final Map<String, Object> source = XContentHelper.convertToMap(current.doc().source(), true, current.doc().getContentType()).v2();
+        XContentHelper.update(source, XContentHelper.convertToMap(next.doc().source(), true, next.doc().getContentType()).v2(), false);
+        final UpdateRequest merged = new UpdateRequest(current.index(), current.id()).routing(current.routing());
+        merged.doc(source);
+        merged.docAsUpsert(current.docAsUpsert() || next.docAsUpsert());
+        merged.detectNoop(current.detectNoop() && next.detectNoop());
+        merged.retryOnConflict(Math.max(current.retryOnConflict(), next.retryOnConflict()));
+        if (next.upsertRequest() != null) {
+            merged.upsert(next.upsertRequest());
+        } else if (current.upsertRequest() != null) {
+            merged.upsert(current.upsertRequest());
+        }
+        if (next.fetchSource() != null) {
+            merged.fetchSource(next.fetchSource());
+        } else if (current.fetchSource() != null) {
+            merged.fetchSource(current.fetchSource());
+        }
+        return merged;
+    }
+
+    protected boolean isOverTheLimit() {
+        if (bulkActions != -1 && bulkRequest.numberOfActions() >= bulkActions) {
+            return true;
+        }
+        final long sizeInBytes = bulkRequest.estimatedSizeInBytes() + mergedSizeInBytes;
+        if (sizer != null) {
+            return sizeInBytes >= sizer.getBulkSize();
+        }
+        return bulkSize != -1 && sizeInBytes >= bulkSize;
+    }
+
+    protected BulkRequest swapBulkRequest() {
+        final BulkRequest request = bulkRequest;
+        bulkRequest = newBulkRequest();
+        pendingUpdates.clear();
+        mergedSizeInBytes = 0;
+        return request;
+    }
+
+    protected BulkRequest newBulkRequest() {
+        final BulkRequest request = new BulkRequest();
+        if (refreshPolicy != null) {
+            request.setRefreshPolicy(refreshPolicy);
+        }
+        return request;
+    }
+
+    protected void execute(final BulkRequest request) {
+        try {
+            semaphore.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            listener.afterBulk(executionIdGenerator.incrementAndGet(), request, e);
+            return;
+        }
+        doExecute(request, concurrentRequests == 0);
+    }
+
+    protected void doExecute(final BulkRequest request, final boolean await) {
+        // a permit has been acquired
+        final long executionId = executionIdGenerator.incrementAndGet();
+        if (spool != null && !spool.isEmpty()) {
+            // keeps the order until the spool is drained
+            try {
+                spool(executionId, request);
+            } finally {
+                semaphore.release();
+            }
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        final long startTime = System.nanoTime();
+        try {
+            listener.beforeBulk(executionId, request);
+            client.bulk(request, new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(final BulkResponse response) {
+                    if (!finished.compareAndSet(false, true)) {
+                        return;
+                    }
+                    if (sizer != null) {
+                        int rejectedItems = 0;
+                        for (final BulkItemResponse item : response.getItems()) {
+                            if (item.isFailed() && item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                                rejectedItems++;
+                            }
+                        }
+                        sizer.onResponse(System.nanoTime() - startTime, response.getTook().millis(), request.numberOfActions(),
+                                rejectedItems);
+                        adjustPermits();
+                    }
+                    try {
+                        listener.afterBulk(executionId, request, response);
+                    } finally {
+                        semaphore.release();
+                        latch.countDown();
+                    }
+                }
+
+                @Override
+                public void onFailure(final Exception e) {
+                    if (!finished.compareAndSet(false, true)) {
+                        return;
+                    }
+                    if (sizer != null && ExceptionsHelper.status(e) == RestStatus.TOO_MANY_REQUESTS) {
+                        sizer.onRejected();
+                        adjustPermits();
+                    }
+                    try {
+                        if (spool != null && isUnavailable(e)) {
+                            spool(executionId, request);
+                            return;
+                        }
+                        listener.afterBulk(executionId, request, e);
+                    } finally {
+                        semaphore.release();
+                        latch.countDown();
+                    }
+                }
+            });
+            if (await) {
+                latch.await();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final Exception e) {
+            // the listener may have been notified before the exception was thrown
+            if (finished.compareAndSet(false, true)) {
+                try {
+                    listener.afterBulk(executionId, request, e);
+                } finally {
+                    semaphore.release();
+                }
+            }
+        }
+    }
+
+    protected void spool(final long executionId, final BulkRequest request) {
+        try (final BytesStreamOutput out = new BytesStreamOutput()) {
+            new HttpBulkAction(client, BulkAction.INSTANCE).writeBulkRequest(request, out);
+            spool.append(out.bytes());
+        } catch (final Exception e) {
+            listener.afterBulk(executionId, request, e);
+            return;
+        }
+        listener.afterSpool(executionId, request);
+    }
+
+    protected boolean isUnavailable(final Exception e) {
+        switch (ExceptionsHelper.status(e)) {
+        case TOO_MANY_REQUESTS:
+        case BAD_GATEWAY:
+        case SERVICE_UNAVAILABLE:
+        case GATEWAY_TIMEOUT:
+            return true;
+        default:
+            // no response, unlike a response that could not be parsed
+            return ExceptionsHelper.unwrap(e, NoResponseException.class) != null;
+        }
+    }
+
+    protected void drainIfIdle() {
+        // the scheduler thread is shared, so the spool is read on the executor
+        if (closed || spool.isEmpty() || !draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            client.getExecutor().execute(this::drainSpool);
+        } catch (final RejectedExecutionException e) {
+            draining.set(false);
+        }
+    }
+
+    protected void drainSpool() {
+        final BulkSpool.Record record;
+        try {
+            record = closed ? null : spool.peek();
+        } catch (final Exception e) {
+            logger.warn("Failed to read the spool.", e);
+            draining.set(false);
+            return;
+        }
+        if (record == null) {
+            draining.set(false);
+            return;
+        }
+        final long executionId = executionIdGenerator.incrementAndGet();
+        final ActionListener<BulkResponse> actionListener = new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(final BulkResponse response) {
+                if (commit(record)) {
+                    listener.afterSpooledBulk(executionId, response);
+                    drainSpool();
+                }
+            }
+
+            @Override
+            public void onFailure(final Exception e) {
+                if (isUnavailable(e)) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Failed to drain the spool.", e);
+                    }
+                    draining.set(false);
+                } else if (commit(record)) {
+                    // the record can never succeed
+                    listener.afterSpooledBulk(executionId, e);
+                    drainSpool();
+                }
+            }
+        };
+        try {
+            new HttpBulkAction(client, BulkAction.INSTANCE).execute(newBulkRequest(), null, new ByteBuffer[] { record.getData() },
+                    actionListener);
+        } catch (final Exception e) {
+            actionListener.onFailure(e);
+        }
+    }
+
+    protected boolean commit(final BulkSpool.Record record) {
+        try {
+            spool.commit(record);
+            return true;
+        } catch (final Exception e) {
+            // the record is sent again on the next run
+            logger.warn("Failed to commit the spool.", e);
+            draining.set(false);
+            return false;
+        }
+    }
+
+    protected synchronized void adjustPermits() {
+        if (closed || concurrentRequests == 0) {
+            return;
+        }
+        final int target = sizer.getConcurrentRequests();
+        if (target > permits) {
+            semaphore.release(target - permits);
+        } else if (target < permits) {
+            // in-flight requests give their permits back as usual
+            semaphore.reducePermits(permits - target);
+        }
+        permits = target;
+    }
+
+    protected void ensureOpen() {
+        if (closed) {
+            throw new ElasticsearchException("Bulk processor already closed.");
+        }
+    }
+
+    public static class Builder {
+
+        protected final HttpClient client;
+
+        protected final Listener listener;
+
+        protected int bulkActions = 1000;
+
+        protected ByteSizeValue bulkSize = new ByteSizeValue(5, ByteSizeUnit.MB);
+
+        protected int concurrentRequests = 1;
+
+        protected TimeValue flushInterval = null;
+
+        protected RefreshPolicy refreshPolicy = null;
+
+        protected ByteSizeValue minBulkSize = null;
+
+        protected ByteSizeValue maxBulkSize = null;
+
+        protected int maxConcurrentRequests = 1;
+
+        protected TimeValue targetLatency = TimeValue.timeValueSeconds(1);
+
+        protected BiFunction<UpdateRequest, UpdateRequest, UpdateRequest> updateMerger = null;
+
+        protected Path spoolDirectory = null;
+
+        protected ByteSizeValue spoolSize = null;
+
+        protected ByteSizeValue spoolSegmentSize = new ByteSizeValue(64, ByteSizeUnit.MB);
+
+        protected TimeValue spoolDrainInterval = TimeValue.timeValueSeconds(1);
+
+        protected boolean spoolSync = true;
+
+        protected Builder(final HttpClient client, final Listener listener) {
+            this.client = client;
+            this.listener = listener;
+        }
+
+        public Builder setBulkActions(final int bulkActions) {
+            this.bulkActions = bulkActions;
+            return this;
+        }
+
+        public Builder setBulkSize(final ByteSizeValue bulkSize) {
+            this.bulkSize = bulkSize;
+            return this;
+        }
+
+        public Builder setConcurrentRequests(final int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        public Builder setFlushInterval(final TimeValue flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        public Builder setRefreshPolicy(final RefreshPolicy refreshPolicy) {
+            this.refreshPolicy = refreshPolicy;
+            return this;
+        }
+
+        public Builder setAdaptiveBulkSize(final ByteSizeValue minBulkSize, final ByteSizeValue maxBulkSize) {
+            this.minBulkSize = minBulkSize;
+            this.maxBulkSize = maxBulkSize;
+            return this;
+        }
+
+        public Builder setMaxConcurrentRequests(final int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        public Builder setTargetLatency(final TimeValue targetLatency) {
+            this.targetLatency = targetLatency;
+            return this;
+        }
+
+        public Builder setUpdateCoalescing(final boolean enabled) {
+            updateMerger = enabled ? HttpBulkProcessor::mergeUpdates : null;
+            return this;
+        }
+
+        public Builder setUpdateMerger(final BiFunction<UpdateRequest, UpdateRequest, UpdateRequest> updateMerger) {
+            this.updateMerger = updateMerger;
+            return this;
+        }
+
+        public Builder setSpool(final Path spoolDirectory, final ByteSizeValue spoolSize) {
+            this.spoolDirectory = spoolDirectory;
+            this.spoolSize = spoolSize;
+            return this;
+        }
+
+        public Builder setSpoolSegmentSize(final ByteSizeValue spoolSegmentSize) {
+            this.spoolSegmentSize = spoolSegmentSize;
+            return this;
+        }
+
+        public Builder setSpoolDrainInterval(final TimeValue spoolDrainInterval) {
+            this.spoolDrainInterval = spoolDrainInterval;
+            return this;
+        }
+
+        // fsyncs every append; without it, a crash of the machine may lose the latest records
+        public Builder setSpoolSync(final boolean spoolSync) {
+            this.spoolSync = spoolSync;
+            return this;
+        }
+
+        public HttpBulkProcessor build() {
+            return new HttpBulkProcessor(this);
+        }
+    }
+
+    protected static class ResizableSemaphore extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        protected ResizableSemaphore(final int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(final int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.bulk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codelibs.elasticsearch.client.HttpClient;
+import org.codelibs.elasticsearch.client.action.HttpBulkAction;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkAction;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+public class NdjsonBulkLoader {
+
+    public interface Listener {
+
+        void beforeBulk(long executionId, long offset, long length);
+
+        void afterBulk(long executionId, long offset, long length, BulkResponse response);
+
+        void afterBulk(long executionId, long offset, long length, Throwable failure);
+    }
+
+    protected static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE - 8;
+
+    protected static final ByteBuffer NEWLINE = ByteBuffer.wrap(new byte[] { '\n' }).asReadOnlyBuffer();
+
+    protected static final byte[] DELETE = "delete".getBytes(StandardCharsets.UTF_8);
+
+    protected final HttpClient client;
+
+    protected final Listener listener;
+
+    protected final long bulkSize;
+
+    protected final int concurrentRequests;
+
+    protected final long windowSize;
+
+    protected final String index;
+
+    protected final RefreshPolicy refreshPolicy;
+
+    protected final TimeValue timeout;
+
+    protected final AtomicLong executionIdGenerator = new AtomicLong();
+
+    protected NdjsonBulkLoader(final Builder builder) {
+        client = builder.client;
+        listener = builder.listener;
+        bulkSize = Math.max(1, builder.bulkSize.getBytes());
+        concurrentRequests = Math.max(1, builder.concurrentRequests);
+        windowSize = Math.min(Math.max(bulkSize * 4, 64L * 1024 * 1024), MAX_WINDOW_SIZE);
+        index = builder.index;
+        refreshPolicy = builder.refreshPolicy;
+        timeout = builder.timeout;
+    }
+
+    public static Builder builder(final HttpClient client, final Listener listener) {
+        return new Builder(client, listener);
+    }
+
+    // blocks until all bulk requests for the file are finished
+    public void load(final Path path) throws IOException, InterruptedException {
+        final Semaphore semaphore = new Semaphore(concurrentRequests);
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long windowStart = 0;
+            MappedByteBuffer window = null;
+            long start = 0;
+            while (start < size) {
+                if (window == null || start >= windowStart + window.capacity()) {
+                    windowStart = start;
+                    window = channel.map(MapMode.READ_ONLY, windowStart, Math.min(windowSize, size - windowStart));
+                }
+                final boolean lastWindow = windowStart + window.capacity() == size;
+                final int from = (int) (start - windowStart);
+                final int to = findChunkEnd(window, from, lastWindow);
+                if (to == -1) {
+                    // a single action does not fit into the window
+                    if (window.capacity() >= MAX_WINDOW_SIZE) {
+                        throw new ElasticsearchException("Too large action at " + start + " in " + path);
+                    }
+                    window =
+                            channel.map(MapMode.READ_ONLY, windowStart,
+                                    Math.min(Math.min((long) window.capacity() * 2, MAX_WINDOW_SIZE), size - windowStart));
+                    continue;
+                }
+                if (!isBlank(window, from, to)) {
+                    final ByteBuffer chunk = window.duplicate();
+                    chunk.position(from).limit(to);
+                    semaphore.acquire();
+                    execute(start, chunk.slice(), semaphore);
+                }
+                start = windowStart + to;
+            }
+        } finally {
+            semaphore.acquire(concurrentRequests);
+            semaphore.release(concurrentRequests);
+        }
+    }
+
+    protected void execute(final long offset, final ByteBuffer chunk, final Semaphore semaphore) {
+        // a permit has been acquired
+        final long executionId = executionIdGenerator.incrementAndGet();
+        final long length = chunk.remaining();
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        final ByteBuffer[] body =
+                chunk.get(chunk.limit() - 1) == '\n' ? new ByteBuffer[] { chunk } : new ByteBuffer[] { chunk, NEWLINE.duplicate() };
+        final BulkRequest request = new BulkRequest();
+        if (refreshPolicy != null) {
+            request.setRefreshPolicy(refreshPolicy);
+        }
+        if (timeout != null) {
+            request.timeout(timeout);
+        }
+        try {
+            listener.beforeBulk(executionId, offset, length);
+            new HttpBulkAction(client, BulkAction.INSTANCE).execute(request, index, body, new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(final BulkResponse response) {
+                    if (!finished.compareAndSet(false, true)) {
+                        return;
+                    }
+                    try {
+                        listener.afterBulk(executionId, offset, length, response);
+                    } finally {
+                        semaphore.release();
+                    }
+                }
+
+                @Override
+                public void onFailure(final Exception e) {
+                    if (!finished.compareAndSet(false, true)) {
+                        return;
+                    }
+                    try {
+                        listener.afterBulk(executionId, offset, length, e);
+                    } finally {
+                        semaphore.release();
+                    }
+                }
+            });
+        } catch (final Exception e) {
+            if (finished.compareAndSet(false, true)) {
+                try {
+                    listener.afterBulk(executionId, offset, length, e);
+                } finally {
+                    semaphore.release();
+                }
+            }
+        }
+    }
+
+    // returns the end of the last complete action before the bulk size is reached, or -1 if none
+    protected int findChunkEnd(final ByteBuffer window, final int from, final boolean lastWindow) {
+        final int limit = window.capacity();
+        int end = -1;
+        int pos = from;
+        while (pos < limit && (end == -1 || end - from < bulkSize)) {
+            final int actionEnd = findLineEnd(window, pos, limit);
+            if (actionEnd == -1) {
+                return lastWindow ? limit : end;
+            }
+            if (actionEnd - pos <= 1 || isDelete(window, pos, actionEnd)) {
+                // an empty line or an action without a source line
+                end = pos = actionEnd;
+                continue;
+            }
+            final int sourceEnd = findLineEnd(window, actionEnd, limit);
+            if (sourceEnd == -1) {
+                return lastWindow ? limit : end;
+            }
+            end = pos = sourceEnd;
+        }
+        return end;
+    }
+
+    protected int findLineEnd(final ByteBuffer window, final int from, final int limit) {
+        for (int i = from; i < limit; i++) {
+            if (window.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    protected boolean isBlank(final ByteBuffer window, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (!Character.isWhitespace(window.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected boolean isDelete(final ByteBuffer window, final int from, final int to) {
+        // {"delete":{...}}
+        int pos = from;
+        while (pos < to && window.get(pos) != '"') {
+            pos++;
+        }
+        pos++;
+        if (pos + DELETE.length >= to) {
+            return false;
+        }
+        for (int i = 0; i < DELETE.length; i++) {
+            if (window.get(pos + i) != DELETE[i]) {
+                return false;
+            }
+        }
+        return window.get(pos + DELETE.length) == '"';
+    }
+
+    public static class Builder {
+
+        protected final HttpClient client;
+
+        protected final Listener listener;
+
+        protected ByteSizeValue bulkSize = new ByteSizeValue(10, ByteSizeUnit.MB);
+
+        protected int concurrentRequests = 2;
+
+        protected String index = null;
+
+        protected RefreshPolicy refreshPolicy = null;
+
+        protected TimeValue timeout = null;
+
+        protected Builder(final HttpClient client, final Listener listener) {
+            this.client = client;
+            this.listener = listener;
+        }
+
+        public Builder setBulkSize(final ByteSizeValue bulkSize) {
+            this.bulkSize = bulkSize;
+            return this;
+        }
+
+        public Builder setConcurrentRequests(final int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        public Builder setIndex(final String index) {
+            this.index = index;
+            return this;
+        }
+
+        public Builder setRefreshPolicy(final RefreshPolicy refreshPolicy) {
+            this.refreshPolicy = refreshPolicy;
+            return this;
+        }
+
+        public Builder setTimeout(final TimeValue timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public NdjsonBulkLoader build() {
+            return new NdjsonBulkLoader(this);
+        }
+    }
+}
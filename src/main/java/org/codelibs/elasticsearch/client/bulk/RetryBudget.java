@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.bulk;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.settings.Settings;
+
+// token bucket shared by all bulk requests: first attempts earn tokens, and each retried item spends one
+public class RetryBudget {
+
+    protected static final long SCALE = 1000L;
+
+    protected final long ratio;
+
+    protected final long maxTokens;
+
+    protected final AtomicLong tokens;
+
+    public RetryBudget(final Settings settings) {
+        this(settings.getAsDouble("http.bulk.retry.budget.ratio", 0.1), settings.getAsInt("http.bulk.retry.budget.max_tokens", 1000));
+    }
+
+    public RetryBudget(final double ratio, final int maxTokens) {
+        this.ratio = (long) (ratio * SCALE);
+        this.maxTokens = maxTokens * SCALE;
+        tokens = new AtomicLong(this.maxTokens);
+    }
+
+    public void deposit(final int items) {
+        final long amount = ratio * items;
+        if (amount > 0) {
+            tokens.accumulateAndGet(amount, (current, value) -> Math.min(maxTokens, current + value));
+        }
+    }
+
+    // returns the number of items that may be retried
+    public int withdraw(final int items) {
+        while (true) {
+            final long current = tokens.get();
+            final int allowed = (int) Math.min(items, current / SCALE);
+            if (allowed == 0 || tokens.compareAndSet(current, current - allowed * SCALE)) {
+                return allowed;
+            }
+        }
+    }
+
+    // returns true if all items may be retried, and spends nothing otherwise
+    public boolean withdrawAll(final int items) {
+        final long amount = items * SCALE;
+        while (true) {
+            final long current = tokens.get();
+            if (current < amount) {
+                return false;
+            }
+            if (tokens.compareAndSet(current, current - amount)) {
+                return true;
+            }
+        }
+    }
+
+    public long getTokens() {
+        return tokens.get() / SCALE;
+    }
+}
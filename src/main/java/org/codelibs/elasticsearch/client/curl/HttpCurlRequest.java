@@ -0,0 +1,355 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.curl;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.codelibs.curl.Curl.Method;
+import org.codelibs.curl.CurlException;
+import org.codelibs.curl.CurlRequest;
+import org.codelibs.curl.CurlResponse;
+import org.codelibs.elasticsearch.client.HttpClient;
+import org.codelibs.elasticsearch.client.host.Host;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.CheckedConsumer;
+
+public class HttpCurlRequest extends CurlRequest {
+
+    protected static final int STREAMING_CHUNK_SIZE = 16 * 1024;
+
+    protected final HttpClient client;
+
+    protected final String path;
+
+    protected volatile Host host;
+
+    protected CheckedConsumer<OutputStream, IOException> bodyWriter;
+
+    protected ByteBuffer[] bodyBuffers;
+
+    protected BiConsumer<CurlRequest, HttpURLConnection> connectionListener;
+
+    public HttpCurlRequest(final HttpClient client, final Method method, final Host host, final String path) {
+        super(method, host.getUrl() + path);
+        this.client = client;
+        this.host = host;
+        this.path = path;
+    }
+
+    public Host host() {
+        return host;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public HttpCurlRequest body(final CheckedConsumer<OutputStream, IOException> writer) {
+        // written on each attempt, so it must be repeatable
+        bodyWriter = writer;
+        bodyBuffers = null;
+        body = null;
+        return this;
+    }
+
+    public HttpCurlRequest body(final ByteBuffer... buffers) {
+        body(out -> {
+            final byte[] bytes = new byte[STREAMING_CHUNK_SIZE];
+            for (final ByteBuffer buffer : buffers) {
+                final ByteBuffer src = buffer.duplicate();
+                while (src.hasRemaining()) {
+                    final int length = Math.min(src.remaining(), bytes.length);
+                    src.get(bytes, 0, length);
+                    out.write(bytes, 0, length);
+                }
+            }
+        });
+        // transports that can send buffers directly use them as they are
+        bodyBuffers = buffers;
+        return this;
+    }
+
+    public ByteBuffer[] bodyBuffers() {
+        return bodyBuffers;
+    }
+
+    public CheckedConsumer<OutputStream, IOException> bodyWriter() {
+        return bodyWriter;
+    }
+
+    @Override
+    public CurlRequest onConnect(final BiConsumer<CurlRequest, HttpURLConnection> listener) {
+        connectionListener = listener;
+        return this;
+    }
+
+    public String url() {
+        final String base = host.getUrl() + path;
+        if (paramList == null) {
+            return base;
+        }
+        return base + (base.indexOf('?') == -1 ? "?" : "&") + String.join("&", paramList);
+    }
+
+    public List<String[]> headers() {
+        return headerList == null ? Collections.emptyList() : headerList;
+    }
+
+    public String compression() {
+        return compression;
+    }
+
+    @Override
+    public void execute(final Consumer<CurlResponse> actionListener, final Consumer<Exception> exceptionListener) {
+        execute(actionListener, exceptionListener, new HashSet<>());
+    }
+
+    @Override
+    public CurlResponse execute() {
+        // goes through the transport, so host tracking and retries apply as well
+        final CompletableFuture<CurlResponse> future = new CompletableFuture<>();
+        execute(future::complete, future::completeExceptionally);
+        try {
+            return future.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof CurlException) {
+                throw (CurlException) e.getCause();
+            }
+            throw new CurlException("Failed to process a request.", e.getCause());
+        }
+    }
+
+    protected void execute(final Consumer<CurlResponse> actionListener, final Consumer<Exception> exceptionListener,
+            final Set<Host> triedHosts) {
+        final Host current = host;
+        // params are appended to url on each connection
+        url = current.getUrl() + path;
+        triedHosts.add(current);
+        final AtomicBoolean responded = new AtomicBoolean(false);
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        final Runnable onFinished = () -> {
+            if (finished.compareAndSet(false, true)) {
+                current.onRequestFinished();
+            }
+        };
+        current.onRequestStarted();
+        try {
+            client.getTransport().execute(this, response -> {
+                responded.set(true);
+                onFinished.run();
+                if (isHostFailure(response.getHttpStatusCode())) {
+                    client.onHostFailure(current);
+                    if (isIdempotent() && retry(actionListener, exceptionListener, triedHosts)) {
+                        return;
+                    }
+                } else {
+                    client.onHostSuccess(current);
+                }
+                actionListener.accept(response);
+            }, e -> {
+                onFinished.run();
+                final BodyWriteException bodyWriteException = findBodyWriteException(e);
+                if (bodyWriteException != null) {
+                    // the body could not be serialized, which says nothing about the host
+                    exceptionListener.accept(new CurlException("Failed to write a request body to " + url, bodyWriteException));
+                    return;
+                }
+                if (!responded.get()) {
+                    // failed before a response was received
+                    client.onHostFailure(current);
+                    if ((isIdempotent() || isConnectFailure(e)) && retry(actionListener, exceptionListener, triedHosts)) {
+                        return;
+                    }
+                    exceptionListener.accept(new NoResponseException("No response from " + current.getUrl(), e));
+                    return;
+                }
+                exceptionListener.accept(e);
+            });
+        } catch (final RuntimeException e) {
+            onFinished.run();
+            throw e;
+        }
+    }
+
+    public void executeWithCurl(final Consumer<CurlResponse> actionListener, final Consumer<Exception> exceptionListener) {
+        super.onConnect((req, con) -> {
+            if (connectionListener != null) {
+                connectionListener.accept(req, con);
+            }
+            if (bodyWriter != null) {
+                writeBody(con);
+            }
+        });
+        super.execute(actionListener, exceptionListener);
+    }
+
+    protected void writeBody(final HttpURLConnection con) {
+        con.setDoOutput(true);
+        con.setChunkedStreamingMode(STREAMING_CHUNK_SIZE);
+        final ConnectionOutputStream out;
+        try {
+            out = new ConnectionOutputStream(new BufferedOutputStream(con.getOutputStream(), STREAMING_CHUNK_SIZE));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            bodyWriter.accept(out);
+        } catch (final Exception e) {
+            if (!out.failed) {
+                // closing the stream would terminate the chunked body, so a partial body could be accepted
+                con.disconnect();
+                throw new BodyWriteException(e);
+            }
+            if (e instanceof IOException) {
+                throw new UncheckedIOException((IOException) e);
+            }
+            throw (RuntimeException) e;
+        }
+        try {
+            out.close();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    protected static BodyWriteException findBodyWriteException(final Throwable t) {
+        Throwable cause = t;
+        while (cause != null) {
+            if (cause instanceof BodyWriteException) {
+                return (BodyWriteException) cause;
+            }
+            cause = cause.getCause();
+        }
+        return null;
+    }
+
+    protected boolean retry(final Consumer<CurlResponse> actionListener, final Consumer<Exception> exceptionListener,
+            final Set<Host> triedHosts) {
+        final Host next = client.selectHost(triedHosts);
+        if (next == null) {
+            return false;
+        }
+        host = next;
+        execute(actionListener, exceptionListener, triedHosts);
+        return true;
+    }
+
+    protected boolean isHostFailure(final int status) {
+        return status == 502 || status == 503 || status == 504;
+    }
+
+    protected boolean isIdempotent() {
+        switch (method) {
+        case GET:
+        case HEAD:
+        case OPTIONS:
+        case PUT:
+        case DELETE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    protected boolean isConnectFailure(final Throwable t) {
+        Throwable cause = t;
+        while (cause != null) {
+            if (cause instanceof ConnectException || cause instanceof NoRouteToHostException || cause instanceof UnknownHostException) {
+                return true;
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    }
+
+    // the body writer failed on the client side, so the request is not retried
+    public static class BodyWriteException extends ElasticsearchException {
+
+        private static final long serialVersionUID = 1L;
+
+        public BodyWriteException(final Throwable cause) {
+            super("Failed to parse a request.", cause);
+        }
+    }
+
+    // the host did not respond, so the cluster may be unavailable
+    public static class NoResponseException extends CurlException {
+
+        private static final long serialVersionUID = 1L;
+
+        public NoResponseException(final String message, final Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    // records whether a write failed on the connection rather than in the body writer
+    protected static class ConnectionOutputStream extends FilterOutputStream {
+
+        protected boolean failed = false;
+
+        protected ConnectionOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (final IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (final IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (final IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.host;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Host {
+
+    protected final String url;
+
+    protected final int weight;
+
+    protected final AtomicInteger activeRequests = new AtomicInteger(0);
+
+    protected final AtomicInteger failures = new AtomicInteger(0);
+
+    protected volatile long deadUntil = 0L;
+
+    protected volatile boolean probing = false;
+
+    public Host(final String url) {
+        this(url, 1);
+    }
+
+    public Host(final String url, final int weight) {
+        this.url = url;
+        this.weight = weight;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getActiveRequests() {
+        return activeRequests.get();
+    }
+
+    public void onRequestStarted() {
+        activeRequests.incrementAndGet();
+    }
+
+    public void onRequestFinished() {
+        activeRequests.decrementAndGet();
+    }
+
+    public boolean isAlive(final long now) {
+        return failures.get() == 0 || now - deadUntil >= 0;
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+
+    public long getDeadUntil() {
+        return deadUntil;
+    }
+
+    public synchronized long markDead(final long now, final long initialBackoff, final long maxBackoff) {
+        if (failures.get() > 0 && !probing && now - deadUntil < 0) {
+            // the host is already dead, so the other failures of the same outage do not escalate
+            return deadUntil - now;
+        }
+        probing = false;
+        final int count = failures.incrementAndGet();
+        long backoff = initialBackoff;
+        for (int i = 1; i < count && backoff < maxBackoff; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, maxBackoff);
+        deadUntil = now + backoff;
+        return backoff;
+    }
+
+    // lets one request through to a dead host whose backoff has expired
+    public synchronized boolean tryProbe(final long now, final long timeout) {
+        if (failures.get() == 0 || now - deadUntil < 0) {
+            return false;
+        }
+        // if the probe never reports back, another one is allowed after the timeout
+        probing = true;
+        deadUntil = now + timeout;
+        return true;
+    }
+
+    public synchronized boolean markAlive() {
+        probing = false;
+        return failures.getAndSet(0) > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Host [url=" + url + ", weight=" + weight + ", activeRequests=" + activeRequests + ", failures=" + failures + "]";
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.host;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.curl.Curl.Method;
+import org.codelibs.curl.CurlResponse;
+import org.codelibs.elasticsearch.client.HttpClient;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+
+public class HostSniffer implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger(HostSniffer.class);
+
+    protected final HttpClient client;
+
+    protected final String scheme;
+
+    protected final Set<String> includeRoles;
+
+    protected final Set<String> excludeRoles;
+
+    protected final TimeValue interval;
+
+    protected volatile ScheduledFuture<?> future;
+
+    public HostSniffer(final HttpClient client, final Settings settings, final String defaultScheme) {
+        this.client = client;
+        scheme = settings.get("http.sniffer.scheme", defaultScheme);
+        includeRoles = new HashSet<>(settings.getAsList("http.sniffer.include_roles"));
+        excludeRoles = new HashSet<>(settings.getAsList("http.sniffer.exclude_roles"));
+        interval = settings.getAsTime("http.sniffer.interval", TimeValue.timeValueMinutes(5));
+    }
+
+    public void start(final ScheduledExecutorService scheduler) {
+        future = scheduler.scheduleWithFixedDelay(() -> sniff(ActionListener.wrap(urls -> {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Sniffed hosts: {}", urls);
+            }
+        }, e -> logger.warn("Failed to sniff hosts.", e))), 0, interval.millis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void sniff(final ActionListener<List<String>> listener) {
+        client.getCurlRequest(Method.GET, "/_nodes/http").execute(response -> {
+            try {
+                final List<String> urls = parseHosts(response);
+                if (urls.isEmpty()) {
+                    listener.onFailure(new ElasticsearchException("No hosts matched: " + response.getContentAsString()));
+                } else {
+                    client.updateHosts(urls);
+                    listener.onResponse(urls);
+                }
+            } catch (final Exception e) {
+                listener.onFailure(e);
+            }
+        }, listener::onFailure);
+    }
+
+    protected List<String> parseHosts(final CurlResponse response) throws Exception {
+        if (response.getHttpStatusCode() != 200) {
+            throw new ElasticsearchException("Unexpected status " + response.getHttpStatusCode() + ": " + response.getContentAsString());
+        }
+        String contentType = response.getHeaderValue("Content-Type");
+        if (contentType == null) {
+            contentType = "application/json";
+        }
+        final Map<String, Object> map;
+        try (final InputStream in = response.getContentAsStream()) {
+            map = XContentHelper.convertToMap(XContentType.fromMediaTypeOrFormat(contentType).xContent(), in, false);
+        }
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> nodes = (Map<String, Object>) map.getOrDefault("nodes", Collections.emptyMap());
+        final List<String> urls = new ArrayList<>();
+        for (final Object value : nodes.values()) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> node = (Map<String, Object>) value;
+            @SuppressWarnings("unchecked")
+            final List<String> roles = (List<String>) node.getOrDefault("roles", Collections.emptyList());
+            if (!matchRoles(roles)) {
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> http = (Map<String, Object>) node.get("http");
+            if (http == null || http.get("publish_address") == null) {
+                continue;
+            }
+            urls.add(scheme + "://" + parsePublishAddress(http.get("publish_address").toString()));
+        }
+        Collections.sort(urls);
+        return urls;
+    }
+
+    protected boolean matchRoles(final List<String> roles) {
+        if (!includeRoles.isEmpty() && roles.stream().noneMatch(includeRoles::contains)) {
+            return false;
+        }
+        return roles.stream().noneMatch(excludeRoles::contains);
+    }
+
+    public static String parsePublishAddress(final String address) {
+        // hostname/ip:port
+        final int pos = address.indexOf('/');
+        if (pos == -1) {
+            return address;
+        } else if (pos == 0) {
+            return address.substring(1);
+        }
+        final String hostname = address.substring(0, pos);
+        final int portPos = address.lastIndexOf(':');
+        return hostname + address.substring(portPos);
+    }
+
+    @Override
+    public void close() {
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.host;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LeastActiveHostSelector implements HostSelector {
+
+    protected final AtomicInteger counter = new AtomicInteger(0);
+
+    @Override
+    public Host select(final List<Host> hosts) {
+        final int size = hosts.size();
+        // rotate the starting point so that ties are spread over all hosts
+        final int offset = Math.floorMod(counter.getAndIncrement(), size);
+        Host selected = null;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            final Host host = hosts.get((offset + i) % size);
+            final int active = host.getActiveRequests();
+            if (active < min) {
+                min = active;
+                selected = host;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.host;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class WeightedHostSelector implements HostSelector {
+
+    @Override
+    public Host select(final List<Host> hosts) {
+        int total = 0;
+        for (final Host host : hosts) {
+            total += host.getWeight();
+        }
+        if (total <= 0) {
+            return hosts.get(ThreadLocalRandom.current().nextInt(hosts.size()));
+        }
+        int value = ThreadLocalRandom.current().nextInt(total);
+        for (final Host host : hosts) {
+            value -= host.getWeight();
+            if (value < 0) {
+                return host;
+            }
+        }
+        return hosts.get(hosts.size() - 1);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.bytes.CompositeBytesReference;
+import org.elasticsearch.common.xcontent.LoggingDeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.json.JsonXContentParser;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+// JSON parser that can cut the _source of an object out of the response bytes without decoding it
+public class LazySourceParser implements Closeable {
+
+    protected static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    protected static final BytesReference EMPTY_SOURCE = new BytesArray("{}");
+
+    protected static final String SOURCE_FIELD = "_source";
+
+    protected final NamedXContentRegistry registry;
+
+    protected final byte[] bytes;
+
+    protected final JsonParser jsonParser;
+
+    protected final XContentParser parser;
+
+    public LazySourceParser(final NamedXContentRegistry registry, final byte[] bytes) throws IOException {
+        this.registry = registry;
+        this.bytes = bytes;
+        jsonParser = JSON_FACTORY.createParser(bytes);
+        parser = new JsonXContentParser(registry, LoggingDeprecationHandler.INSTANCE, jsonParser);
+    }
+
+    public XContentParser parser() {
+        return parser;
+    }
+
+    // the parser must be on the START_OBJECT of the object, and is on its END_OBJECT on return
+    public SlicedObject sliceObject() throws IOException {
+        final int start = (int) jsonParser.getTokenLocation().getByteOffset();
+        int sourceStart = -1;
+        int sourceEnd = -1;
+        String currentFieldName = null;
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (SOURCE_FIELD.equals(currentFieldName) && token == XContentParser.Token.START_OBJECT) {
+                sourceStart = (int) jsonParser.getTokenLocation().getByteOffset();
+                parser.skipChildren();
+                sourceEnd = (int) jsonParser.getTokenLocation().getByteOffset() + 1;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        final int end = (int) jsonParser.getTokenLocation().getByteOffset() + 1;
+        if (sourceStart == -1) {
+            return new SlicedObject(new BytesArray(bytes, start, end - start), null);
+        }
+        // the metadata is parsed with an empty source in place of the original one
+        final BytesReference metadata =
+                new CompositeBytesReference(new BytesArray(bytes, start, sourceStart - start), EMPTY_SOURCE, new BytesArray(bytes,
+                        sourceEnd, end - sourceEnd));
+        return new SlicedObject(metadata, new BytesArray(bytes, sourceStart, sourceEnd - sourceStart));
+    }
+
+    public XContentParser createParser(final BytesReference content) throws IOException {
+        final XContentParser objectParser =
+                XContentType.JSON.xContent().createParser(registry, LoggingDeprecationHandler.INSTANCE, content.streamInput());
+        objectParser.nextToken();
+        return objectParser;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
+    public static class SlicedObject {
+
+        protected final BytesReference metadata;
+
+        protected final BytesReference source;
+
+        protected SlicedObject(final BytesReference metadata, final BytesReference source) {
+            this.metadata = metadata;
+            this.source = source;
+        }
+
+        // the object with an empty _source
+        public BytesReference getMetadata() {
+            return metadata;
+        }
+
+        // a slice of the response bytes, or null if the object has no _source
+        public BytesReference getSource() {
+            return source;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.search;
+
+import org.elasticsearch.search.SearchHit;
+
+public class DecodedHit<T> {
+
+    protected final SearchHit hit;
+
+    protected final T source;
+
+    public DecodedHit(final SearchHit hit, final T source) {
+        this.hit = hit;
+        this.source = source;
+    }
+
+    // _id, _index, score, sort values and other metadata of the hit
+    public SearchHit getHit() {
+        return hit;
+    }
+
+    public String getId() {
+        return hit.getId();
+    }
+
+    // null if the hit has no _source
+    public T getSource() {
+        return source;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.search;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.codelibs.elasticsearch.client.HttpClient;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.search.SearchHit;
+
+// fetches the next pages in the background while the current one is consumed
+public abstract class PrefetchingHitIterator implements Iterator<SearchHit>, Closeable {
+
+    protected final HttpClient client;
+
+    protected final int prefetchPages;
+
+    protected final boolean allowPartialResults;
+
+    protected final ArrayDeque<SearchHit[]> pages = new ArrayDeque<>();
+
+    protected SearchHit[] currentPage = new SearchHit[0];
+
+    protected int currentIndex = 0;
+
+    protected long totalHits = -1;
+
+    protected boolean inFlight = false;
+
+    protected boolean finished = false;
+
+    protected boolean closed = false;
+
+    protected Exception failure;
+
+    protected PrefetchingHitIterator(final HttpClient client, final int prefetchPages, final boolean allowPartialResults) {
+        this.client = client;
+        this.prefetchPages = Math.max(1, prefetchPages);
+        this.allowPartialResults = allowPartialResults;
+    }
+
+    // sends the request for the next page
+    protected abstract void fetch(ActionListener<SearchResponse> listener);
+
+    // called with the lock held when a page arrives, even after the iterator is closed
+    protected void onPage(final SearchResponse response) {
+        if (response.getHits().getTotalHits() != null) {
+            totalHits = response.getHits().getTotalHits().value;
+        }
+    }
+
+    // returns true if no more pages follow the given one
+    protected boolean isLastPage(final SearchResponse response) {
+        return response.getHits().getHits().length == 0;
+    }
+
+    // called with the lock held once the iterator is closed and no request is in flight
+    protected void onClose() {
+    }
+
+    protected ElasticsearchException toShardFailure(final SearchResponse response) {
+        final ShardSearchFailure[] shardFailures = response.getShardFailures();
+        final ElasticsearchException e =
+                new ElasticsearchException(response.getFailedShards() + " of " + response.getTotalShards() + " shards failed.",
+                        shardFailures.length > 0 ? shardFailures[0].getCause() : null);
+        for (int i = 1; i < shardFailures.length; i++) {
+            e.addSuppressed(shardFailures[i].getCause());
+        }
+        return e;
+    }
+
+    protected synchronized void start() {
+        fetchNext();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (currentIndex >= currentPage.length) {
+            synchronized (this) {
+                while (pages.isEmpty() && !finished) {
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        close();
+                        throw new ElasticsearchException("Interrupted while waiting for the next page.", e);
+                    }
+                }
+                if (pages.isEmpty()) {
+                    if (failure != null) {
+                        close();
+                        if (failure instanceof ElasticsearchException) {
+                            throw (ElasticsearchException) failure;
+                        }
+                        throw new ElasticsearchException("Failed to fetch the next page.", failure);
+                    }
+                    close();
+                    return false;
+                }
+                currentPage = pages.poll();
+                currentIndex = 0;
+                fetchNext();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public SearchHit next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentPage[currentIndex++];
+    }
+
+    public Stream<SearchHit> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(
+                this::close);
+    }
+
+    public synchronized long getTotalHits() {
+        return totalHits;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        finished = true;
+        pages.clear();
+        notifyAll();
+        if (!inFlight) {
+            onClose();
+        }
+        // otherwise onClose is called when the in-flight response arrives
+    }
+
+    protected void fetchNext() {
+        // called with the lock held
+        if (inFlight || finished || pages.size() >= prefetchPages) {
+            return;
+        }
+        inFlight = true;
+        try {
+            fetch(newListener());
+        } catch (final Exception e) {
+            inFlight = false;
+            failure = e;
+            finished = true;
+            notifyAll();
+        }
+    }
+
+    protected ActionListener<SearchResponse> newListener() {
+        return new ActionListener<SearchResponse>() {
+            @Override
+            public void onResponse(final SearchResponse response) {
+                synchronized (PrefetchingHitIterator.this) {
+                    inFlight = false;
+                    onPage(response);
+                    if (closed) {
+                        onClose();
+                        return;
+                    }
+                    if (!allowPartialResults && response.getFailedShards() > 0) {
+                        // the next page would skip what the failed shards did not return
+                        failure = toShardFailure(response);
+                        finished = true;
+                        PrefetchingHitIterator.this.notifyAll();
+                        return;
+                    }
+                    final SearchHit[] hits = response.getHits().getHits();
+                    if (hits.length > 0) {
+                        pages.add(hits);
+                    }
+                    if (isLastPage(response)) {
+                        finished = true;
+                    } else {
+                        fetchNext();
+                    }
+                    PrefetchingHitIterator.this.notifyAll();
+                }
+            }
+
+            @Override
+            public void onFailure(final Exception e) {
+                synchronized (PrefetchingHitIterator.this) {
+                    inFlight = false;
+                    if (closed) {
+                        onClose();
+                        return;
+                    }
+                    failure = e;
+                    finished = true;
+                    PrefetchingHitIterator.this.notifyAll();
+                }
+            }
+        };
+    }
+}
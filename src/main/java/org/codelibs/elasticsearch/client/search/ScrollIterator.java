@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.search;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.elasticsearch.client.HttpClient;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.common.unit.TimeValue;
+
+public class ScrollIterator extends PrefetchingHitIterator {
+
+    private static final Logger logger = LogManager.getLogger(ScrollIterator.class);
+
+    protected final SearchRequest request;
+
+    protected final TimeValue scroll;
+
+    protected String scrollId;
+
+    protected boolean cleared = false;
+
+    protected ScrollIterator(final Builder builder) {
+        super(builder.client, builder.prefetchPages, builder.allowPartialResults);
+        // a copy, so the caller's request does not turn into a scroll search
+        request = new SearchRequest(builder.request);
+        if (request.scroll() == null) {
+            request.scroll(builder.scroll);
+        }
+        scroll = request.scroll().keepAlive();
+        start();
+    }
+
+    public static Builder builder(final HttpClient client, final SearchRequest request) {
+        return new Builder(client, request);
+    }
+
+    public synchronized String getScrollId() {
+        return scrollId;
+    }
+
+    @Override
+    protected void fetch(final ActionListener<SearchResponse> listener) {
+        if (scrollId == null) {
+            client.search(request, listener);
+        } else {
+            final SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
+            scrollRequest.scroll(scroll);
+            client.searchScroll(scrollRequest, listener);
+        }
+    }
+
+    @Override
+    protected void onPage(final SearchResponse response) {
+        super.onPage(response);
+        if (response.getScrollId() != null) {
+            scrollId = response.getScrollId();
+        }
+    }
+
+    @Override
+    protected void onClose() {
+        if (cleared || scrollId == null) {
+            return;
+        }
+        cleared = true;
+        final ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+        clearScrollRequest.addScrollId(scrollId);
+        client.clearScroll(clearScrollRequest, ActionListener.wrap(response -> {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Cleared the scroll: {}", scrollId);
+            }
+        }, e -> logger.warn("Failed to clear the scroll: " + scrollId, e)));
+    }
+
+    public static class Builder {
+
+        protected final HttpClient client;
+
+        protected final SearchRequest request;
+
+        protected TimeValue scroll = TimeValue.timeValueMinutes(1);
+
+        protected int prefetchPages = 1;
+
+        protected boolean allowPartialResults = false;
+
+        protected Builder(final HttpClient client, final SearchRequest request) {
+            this.client = client;
+            this.request = request;
+        }
+
+        public Builder setScroll(final TimeValue scroll) {
+            this.scroll = scroll;
+            return this;
+        }
+
+        public Builder setPrefetchPages(final int prefetchPages) {
+            this.prefetchPages = prefetchPages;
+            return this;
+        }
+
+        // by default, a page with failed shards fails the iteration
+        public Builder setAllowPartialResults(final boolean allowPartialResults) {
+            this.allowPartialResults = allowPartialResults;
+            return this;
+        }
+
+        public ScrollIterator build() {
+            return new ScrollIterator(this);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.search;
+
+import org.codelibs.elasticsearch.client.HttpClient;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.Scroll;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+// pages with the sort values of the last hit, so no search context is kept on the cluster
+public class SearchAfterIterator extends PrefetchingHitIterator {
+
+    protected static final int DEFAULT_SIZE = 10;
+
+    protected final SearchRequest request;
+
+    protected final SearchSourceBuilder source;
+
+    protected final int size;
+
+    protected Object[] searchAfter;
+
+    protected SearchAfterIterator(final Builder builder) {
+        super(builder.client, builder.prefetchPages, builder.allowPartialResults);
+        request = new SearchRequest(builder.request).scroll((Scroll) null);
+        source = builder.request.source();
+        if (source == null || source.sorts() == null || source.sorts().isEmpty()) {
+            throw new ElasticsearchException("search_after requires a sort with a unique tiebreaker.");
+        }
+        if (source.from() > 0) {
+            throw new ElasticsearchException("from must be 0 when search_after is used.");
+        }
+        size = source.size() >= 0 ? source.size() : DEFAULT_SIZE;
+        searchAfter = source.searchAfter();
+        start();
+    }
+
+    public static Builder builder(final HttpClient client, final SearchRequest request) {
+        return new Builder(client, request);
+    }
+
+    public synchronized Object[] getSearchAfter() {
+        return searchAfter;
+    }
+
+    @Override
+    protected void fetch(final ActionListener<SearchResponse> listener) {
+        final SearchSourceBuilder pageSource = source.copyWithNewSlice(source.slice());
+        if (searchAfter != null) {
+            pageSource.searchAfter(searchAfter);
+        }
+        if (totalHits >= 0) {
+            // the first page has already counted the hits
+            pageSource.trackTotalHits(false);
+        }
+        client.search(new SearchRequest(request).source(pageSource), listener);
+    }
+
+    @Override
+    protected void onPage(final SearchResponse response) {
+        super.onPage(response);
+        final SearchHit[] hits = response.getHits().getHits();
+        if (hits.length > 0) {
+            searchAfter = hits[hits.length - 1].getSortValues();
+        }
+    }
+
+    @Override
+    protected boolean isLastPage(final SearchResponse response) {
+        final int length = response.getHits().getHits().length;
+        if (length == 0) {
+            return true;
+        }
+        // a short page ends the results unless some shards did not answer
+        return length < size && response.getFailedShards() == 0 && !response.isTimedOut();
+    }
+
+    public static class Builder {
+
+        protected final HttpClient client;
+
+        protected final SearchRequest request;
+
+        protected int prefetchPages = 1;
+
+        protected boolean allowPartialResults = false;
+
+        protected Builder(final HttpClient client, final SearchRequest request) {
+            this.client = client;
+            this.request = request;
+        }
+
+        public Builder setPrefetchPages(final int prefetchPages) {
+            this.prefetchPages = prefetchPages;
+            return this;
+        }
+
+        // by default, a page with failed shards fails the iteration
+        public Builder setAllowPartialResults(final boolean allowPartialResults) {
+            this.allowPartialResults = allowPartialResults;
+            return this;
+        }
+
+        public SearchAfterIterator build() {
+            return new SearchAfterIterator(this);
+        }
+    }
+}
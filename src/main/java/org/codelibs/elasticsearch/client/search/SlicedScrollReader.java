@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.search;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.codelibs.elasticsearch.client.HttpClient;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+
+// runs one scroll per slice concurrently
+public class SlicedScrollReader implements Closeable {
+
+    protected final List<ScrollIterator> iterators;
+
+    protected SlicedScrollReader(final Builder builder) {
+        final SearchRequest request = builder.request;
+        final int slices = builder.slices > 0 ? builder.slices : getNumberOfShards(builder.client, request);
+        final SearchSourceBuilder source = request.source() != null ? request.source() : new SearchSourceBuilder();
+        iterators = new ArrayList<>(slices);
+        try {
+            for (int i = 0; i < slices; i++) {
+                // a slice query requires at least 2 slices
+                final SearchRequest sliceRequest =
+                        new SearchRequest(request).source(slices > 1 ? source.copyWithNewSlice(new SliceBuilder(i, slices)) : source);
+                iterators.add(ScrollIterator.builder(builder.client, sliceRequest).setScroll(builder.scroll)
+                        .setPrefetchPages(builder.prefetchPages).setAllowPartialResults(builder.allowPartialResults).build());
+            }
+        } catch (final RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public static Builder builder(final HttpClient client, final SearchRequest request) {
+        return new Builder(client, request);
+    }
+
+    protected static int getNumberOfShards(final HttpClient client, final SearchRequest request) {
+        final ClusterSearchShardsResponse response =
+                client.admin().cluster().prepareSearchShards(request.indices()).setRouting(request.routing())
+                        .setPreference(request.preference()).execute().actionGet();
+        return Math.max(1, response.getGroups().length);
+    }
+
+    public int getSlices() {
+        return iterators.size();
+    }
+
+    // the consumer is called concurrently from one thread per slice
+    public void read(final Consumer<SearchHit> consumer) throws InterruptedException {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>(iterators.size());
+        for (int i = 0; i < iterators.size(); i++) {
+            final ScrollIterator iterator = iterators.get(i);
+            final Thread thread = new Thread(() -> {
+                try {
+                    while (iterator.hasNext()) {
+                        consumer.accept(iterator.next());
+                    }
+                } catch (final Throwable t) {
+                    if (!failure.compareAndSet(null, t)) {
+                        failure.get().addSuppressed(t);
+                    }
+                    // stop the other slices
+                    close();
+                }
+            }, "eshttp-slice-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+        } catch (final InterruptedException e) {
+            close();
+            throw e;
+        }
+        final Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new ElasticsearchException("Failed to read slices.", t);
+        }
+    }
+
+    // each slice is iterated sequentially; call parallel() to consume slices concurrently
+    public Stream<SearchHit> stream() {
+        return iterators.stream().flatMap(ScrollIterator::stream).onClose(this::close);
+    }
+
+    public List<ScrollIterator> getIterators() {
+        return iterators;
+    }
+
+    @Override
+    public void close() {
+        iterators.forEach(ScrollIterator::close);
+    }
+
+    public static class Builder {
+
+        protected final HttpClient client;
+
+        protected final SearchRequest request;
+
+        protected int slices = 0;
+
+        protected TimeValue scroll = TimeValue.timeValueMinutes(1);
+
+        protected int prefetchPages = 1;
+
+        protected boolean allowPartialResults = false;
+
+        protected Builder(final HttpClient client, final SearchRequest request) {
+            this.client = client;
+            this.request = request;
+        }
+
+        // 0 means the number of shards
+        public Builder setSlices(final int slices) {
+            this.slices = slices;
+            return this;
+        }
+
+        public Builder setScroll(final TimeValue scroll) {
+            this.scroll = scroll;
+            return this;
+        }
+
+        public Builder setPrefetchPages(final int prefetchPages) {
+            this.prefetchPages = prefetchPages;
+            return this;
+        }
+
+        public Builder setAllowPartialResults(final boolean allowPartialResults) {
+            this.allowPartialResults = allowPartialResults;
+            return this;
+        }
+
+        public SlicedScrollReader build() {
+            return new SlicedScrollReader(this);
+        }
+    }
+}
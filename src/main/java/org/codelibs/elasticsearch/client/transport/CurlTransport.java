@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.transport;
+
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+import org.codelibs.curl.CurlResponse;
+import org.codelibs.elasticsearch.client.curl.HttpCurlRequest;
+
+public class CurlTransport implements HttpTransport {
+
+    protected final Executor executor;
+
+    public CurlTransport(final Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(final HttpCurlRequest request, final Consumer<CurlResponse> actionListener,
+            final Consumer<Exception> exceptionListener) {
+        // curl4j blocks the calling thread
+        executor.execute(() -> request.executeWithCurl(actionListener, exceptionListener));
+    }
+}
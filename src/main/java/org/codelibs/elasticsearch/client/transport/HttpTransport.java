@@ -0,0 +1,32 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.transport;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+
+import org.codelibs.curl.CurlResponse;
+import org.codelibs.elasticsearch.client.curl.HttpCurlRequest;
+
+public interface HttpTransport extends Closeable {
+
+    void execute(HttpCurlRequest request, Consumer<CurlResponse> actionListener, Consumer<Exception> exceptionListener);
+
+    @Override
+    default void close() {
+        // nothing
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2012-2019 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.elasticsearch.client.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefIterator;
+import org.codelibs.curl.CurlException;
+import org.codelibs.curl.CurlResponse;
+import org.codelibs.curl.io.ContentCache;
+import org.codelibs.elasticsearch.client.HttpClient;
+import org.codelibs.elasticsearch.client.curl.HttpCurlRequest;
+import org.codelibs.elasticsearch.client.curl.HttpCurlRequest.BodyWriteException;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+public class JdkHttpTransport implements HttpTransport {
+
+    protected final java.net.http.HttpClient httpClient;
+
+    protected final TimeValue requestTimeout;
+
+    public JdkHttpTransport(final HttpClient client, final Settings settings) {
+        final java.net.http.HttpClient.Builder builder = java.net.http.HttpClient.newBuilder().executor(client.getExecutor())
+                .followRedirects(Redirect.NEVER).version(createVersion(settings));
+        final TimeValue connectTimeout = settings.getAsTime("http.transport.connect_timeout", null);
+        if (connectTimeout != null) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeout.millis()));
+        }
+        httpClient = builder.build();
+        requestTimeout = settings.getAsTime("http.transport.request_timeout", null);
+    }
+
+    protected Version createVersion(final Settings settings) {
+        final String version = settings.get("http.transport.version", "1.1");
+        switch (version) {
+        case "1.1":
+            return Version.HTTP_1_1;
+        case "2":
+            // multiplexed over one connection per host; falls back to HTTP/1.1 if the server does not negotiate h2
+            return Version.HTTP_2;
+        default:
+            throw new ElasticsearchException("Unknown http.transport.version: " + version);
+        }
+    }
+
+    @Override
+    public void execute(final HttpCurlRequest request, final Consumer<CurlResponse> actionListener,
+            final Consumer<Exception> exceptionListener) {
+        final String url = request.url();
+        final HttpRequest httpRequest;
+        try {
+            httpRequest = createRequest(request, url);
+        } catch (final Exception e) {
+            exceptionListener.accept(new CurlException("Failed to access to " + url, e));
+            return;
+        }
+        httpClient.sendAsync(httpRequest, BodyHandlers.ofByteArray()).whenComplete((response, t) -> {
+            if (t != null) {
+                final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                exceptionListener.accept(new CurlException("Failed to access to " + url, cause));
+                return;
+            }
+            try (final CurlResponse curlResponse = createResponse(request, response)) {
+                actionListener.accept(curlResponse);
+            } catch (final Exception e) {
+                exceptionListener.accept(new CurlException("Failed to access to " + url, e));
+            }
+        });
+    }
+
+    protected HttpRequest createRequest(final HttpCurlRequest request, final String url) throws IOException {
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url));
+        for (final String[] header : request.headers()) {
+            builder.header(header[0], header[1]);
+        }
+        if (request.compression() != null) {
+            builder.header("Accept-Encoding", request.compression());
+        }
+        if (requestTimeout != null) {
+            builder.timeout(Duration.ofMillis(requestTimeout.millis()));
+        }
+        builder.method(request.method().name(), createBodyPublisher(request));
+        return builder.build();
+    }
+
+    protected BodyPublisher createBodyPublisher(final HttpCurlRequest request) throws IOException {
+        if (request.bodyBuffers() != null) {
+            final ByteBufferPublisher publisher = new ByteBufferPublisher(request.bodyBuffers());
+            return publisher.length == 0 ? BodyPublishers.noBody() : BodyPublishers.fromPublisher(publisher, publisher.length);
+        }
+        if (request.bodyWriter() != null) {
+            final BytesStreamOutput out = new BytesStreamOutput();
+            try {
+                request.bodyWriter().accept(out);
+            } catch (final Exception e) {
+                // nothing has been sent yet
+                throw new BodyWriteException(e);
+            }
+            final BytesReference bytes = out.bytes();
+            if (bytes.length() == 0) {
+                return BodyPublishers.noBody();
+            }
+            // hand over the pages as they are
+            final List<byte[]> pages = new ArrayList<>();
+            final BytesRefIterator iterator = bytes.iterator();
+            BytesRef ref;
+            while ((ref = iterator.next()) != null) {
+                if (ref.offset == 0 && ref.length == ref.bytes.length) {
+                    pages.add(ref.bytes);
+                } else {
+                    pages.add(Arrays.copyOfRange(ref.bytes, ref.offset, ref.offset + ref.length));
+                }
+            }
+            return BodyPublishers.fromPublisher(BodyPublishers.ofByteArrays(pages), bytes.length());
+        }
+        final String body = request.body();
+        if (body == null) {
+            return BodyPublishers.noBody();
+        }
+        return BodyPublishers.ofString(body, Charset.forName(request.encoding()));
+    }
+
+    protected CurlResponse createResponse(final HttpCurlRequest request, final HttpResponse<byte[]> response) throws IOException {
+        final CurlResponse curlResponse = new CurlResponse();
+        curlResponse.setEncoding(request.encoding());
+        curlResponse.setHttpStatusCode(response.statusCode());
+        curlResponse.setHeaders(response.headers().map());
+        byte[] content = response.body();
+        if (content.length > 0 && "gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding").orElse(null))) {
+            content = gunzip(content);
+        }
+        curlResponse.setContentCache(new ContentCache(content));
+        return curlResponse;
+    }
+
+    protected byte[] gunzip(final byte[] content) throws IOException {
+        try (final InputStream in = new GZIPInputStream(new ByteArrayInputStream(content));
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length * 4)) {
+            in.transferTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    protected static class ByteBufferPublisher implements Flow.Publisher<ByteBuffer> {
+
+        protected static final int SLICE_SIZE = 64 * 1024;
+
+        protected final List<ByteBuffer> slices = new ArrayList<>();
+
+        protected final long length;
+
+        protected ByteBufferPublisher(final ByteBuffer[] buffers) {
+            long total = 0;
+            for (final ByteBuffer buffer : buffers) {
+                // slices share the content of the buffer, mapped files included
+                for (int pos = buffer.position(); pos < buffer.limit(); pos += SLICE_SIZE) {
+                    slices.add(buffer.duplicate().position(pos).limit(Math.min(pos + SLICE_SIZE, buffer.limit())).slice());
+                }
+                total += buffer.remaining();
+            }
+            length = total;
+        }
+
+        @Override
+        public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+            final Iterator<ByteBuffer> iterator = slices.iterator();
+            final AtomicLong demand = new AtomicLong();
+            final AtomicBoolean done = new AtomicBoolean(false);
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long n) {
+                    if (n <= 0) {
+                        if (done.compareAndSet(false, true)) {
+                            subscriber.onError(new IllegalArgumentException("non-positive request: " + n));
+                        }
+                        return;
+                    }
+                    if (demand.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b) != 0) {
+                        // another call is emitting
+                        return;
+                    }
+                    long requested = demand.get();
+                    while (true) {
+                        long emitted = 0;
+                        while (emitted < requested && !done.get() && iterator.hasNext()) {
+                            subscriber.onNext(iterator.next());
+                            emitted++;
+                        }
+                        if (!iterator.hasNext() && done.compareAndSet(false, true)) {
+                            subscriber.onComplete();
+                        }
+                        if (done.get()) {
+                            return;
+                        }
+                        requested = demand.addAndGet(-emitted);
+                        if (requested == 0) {
+                            return;
+                        }
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    done.set(true);
+                }
+            });
+        }
+    }
+}
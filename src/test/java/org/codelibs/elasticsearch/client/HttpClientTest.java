@@ -19,28 +19,75 @@ import static org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner.newCo
 import static org.elasticsearch.action.ActionListener.wrap;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.codelibs.curl.Curl.Method;
+import org.codelibs.curl.CurlRequest;
+import org.codelibs.curl.CurlResponse;
+import org.codelibs.curl.io.ContentCache;
 import org.codelibs.elasticsearch.client.action.HttpNodesStatsAction;
+import org.codelibs.elasticsearch.client.action.HttpSearchAction;
+import org.codelibs.elasticsearch.client.bulk.BulkShardRouter;
+import org.codelibs.elasticsearch.client.bulk.HttpBulkProcessor;
+import org.codelibs.elasticsearch.client.bulk.NdjsonBulkLoader;
+import org.codelibs.elasticsearch.client.curl.HttpCurlRequest;
+import org.codelibs.elasticsearch.client.curl.HttpCurlRequest.BodyWriteException;
+import org.codelibs.elasticsearch.client.host.Host;
+import org.codelibs.elasticsearch.client.io.SourceDecoder;
+import org.codelibs.elasticsearch.client.search.DecodedHit;
+import org.codelibs.elasticsearch.client.search.ScrollIterator;
+import org.codelibs.elasticsearch.client.search.SearchAfterIterator;
+import org.codelibs.elasticsearch.client.search.SlicedScrollReader;
+import org.codelibs.elasticsearch.client.transport.CurlTransport;
+import org.codelibs.elasticsearch.client.transport.HttpTransport;
 import org.codelibs.elasticsearch.runner.ElasticsearchClusterRunner;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.DocWriteResponse.Result;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
 import org.elasticsearch.action.admin.cluster.node.stats.NodesStatsResponse;
 import org.elasticsearch.action.admin.cluster.reroute.ClusterRerouteAction;
 import org.elasticsearch.action.admin.cluster.reroute.ClusterRerouteRequest;
 import org.elasticsearch.action.admin.cluster.settings.ClusterUpdateSettingsResponse;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsGroup;
+import org.elasticsearch.action.admin.cluster.shards.ClusterSearchShardsResponse;
 import org.elasticsearch.action.admin.cluster.storedscripts.GetStoredScriptResponse;
 import org.elasticsearch.action.admin.cluster.tasks.PendingClusterTasksResponse;
 import org.elasticsearch.action.admin.indices.alias.Alias;
@@ -65,16 +112,20 @@ import org.elasticsearch.action.admin.indices.shrink.ResizeRequest;
 import org.elasticsearch.action.admin.indices.shrink.ResizeResponse;
 import org.elasticsearch.action.admin.indices.shrink.ShrinkAction;
 import org.elasticsearch.action.admin.indices.validate.query.ValidateQueryResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.explain.ExplainResponse;
 import org.elasticsearch.action.fieldcaps.FieldCapabilities;
 import org.elasticsearch.action.fieldcaps.FieldCapabilitiesResponse;
+import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.get.MultiGetRequest;
 import org.elasticsearch.action.get.MultiGetRequestBuilder;
 import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.ingest.GetPipelineResponse;
 import org.elasticsearch.action.main.MainAction;
@@ -82,33 +133,45 @@ import org.elasticsearch.action.main.MainRequest;
 import org.elasticsearch.action.main.MainResponse;
 import org.elasticsearch.action.search.ClearScrollResponse;
 import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchAction;
+import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
+import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
 import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.io.Streams;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.IndexNotFoundException;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.indices.recovery.RecoverySettings;
 import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.metrics.Max;
+import org.elasticsearch.search.sort.SortOrder;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnJre;
+import org.junit.jupiter.api.condition.JRE;
 
 public class HttpClientTest {
     static final Logger logger = Logger.getLogger(HttpClientTest.class.getName());
@@ -646,6 +709,462 @@ public class HttpClientTest {
         assertTrue(clearScrollResponse.isSucceeded());
     }
 
+    @Test
+    void test_scroll_iterator() throws Exception {
+        final String index = "test_scroll_iterator";
+        final BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+        for (int i = 0; i < 50; i++) {
+            bulkRequestBuilder.add(client.prepareIndex(index, "_doc", String.valueOf(i)).setSource("{\"value\":" + i + "}",
+                    XContentType.JSON));
+        }
+        bulkRequestBuilder.setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+
+        final Set<String> ids = new HashSet<>();
+        final ScrollIterator iterator =
+                ScrollIterator.builder(client, client.prepareSearch(index).setSize(7).request()).setScroll(TimeValue.timeValueSeconds(30))
+                        .setPrefetchPages(2).build();
+        while (iterator.hasNext()) {
+            assertTrue(ids.add(iterator.next().getId()));
+        }
+        assertEquals(50, ids.size());
+        assertEquals(50, iterator.getTotalHits());
+        assertFalse(iterator.hasNext());
+        assertScrollCleared(iterator.getScrollId());
+
+        final SearchRequest partialRequest = client.prepareSearch(index).setSize(5).request();
+        final ScrollIterator partial = ScrollIterator.builder(client, partialRequest).build();
+        try (final Stream<SearchHit> stream = partial.stream()) {
+            assertEquals(12, stream.limit(12).count());
+        }
+        assertScrollCleared(partial.getScrollId());
+        assertNull(partialRequest.scroll());
+    }
+
+    @Test
+    void test_sliced_scroll_reader() throws Exception {
+        final String index = "test_sliced_scroll_reader";
+        client.admin().indices().prepareCreate(index)
+                .setSettings(Settings.builder().put("index.number_of_shards", 3).put("index.number_of_replicas", 0)).execute().actionGet();
+        final BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+        for (int i = 0; i < 100; i++) {
+            bulkRequestBuilder.add(client.prepareIndex(index, "_doc", String.valueOf(i)).setSource("{\"value\":" + i + "}",
+                    XContentType.JSON));
+        }
+        bulkRequestBuilder.setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+
+        final Set<String> ids = ConcurrentHashMap.newKeySet();
+        final Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        final SlicedScrollReader reader = SlicedScrollReader.builder(client, client.prepareSearch(index).setSize(10).request()).build();
+        assertEquals(3, reader.getSlices());
+        reader.read(hit -> {
+            assertTrue(ids.add(hit.getId()));
+            threadNames.add(Thread.currentThread().getName());
+        });
+        assertEquals(100, ids.size());
+        assertEquals(3, threadNames.size());
+        for (final ScrollIterator iterator : reader.getIterators()) {
+            assertScrollCleared(iterator.getScrollId());
+        }
+
+        final SlicedScrollReader streamReader =
+                SlicedScrollReader.builder(client, client.prepareSearch(index).setSize(10).request()).setSlices(4).build();
+        try (final Stream<SearchHit> stream = streamReader.stream()) {
+            assertEquals(100, stream.parallel().map(SearchHit::getId).distinct().count());
+        }
+        for (final ScrollIterator iterator : streamReader.getIterators()) {
+            assertScrollCleared(iterator.getScrollId());
+        }
+    }
+
+    @Test
+    void test_search_after_iterator() throws Exception {
+        final String index = "test_search_after_iterator";
+        client.admin().indices().prepareCreate(index)
+                .setSettings(Settings.builder().put("index.number_of_shards", 2).put("index.number_of_replicas", 0)).execute().actionGet();
+        final BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+        for (int i = 0; i < 50; i++) {
+            bulkRequestBuilder.add(client.prepareIndex(index, "_doc", String.valueOf(i)).setSource("{\"value\":" + i + "}",
+                    XContentType.JSON));
+        }
+        bulkRequestBuilder.setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+
+        final SearchAfterIterator iterator =
+                SearchAfterIterator.builder(client, client.prepareSearch(index).setSize(7).addSort("value", SortOrder.ASC).request())
+                        .setPrefetchPages(2).build();
+        int expected = 0;
+        while (iterator.hasNext()) {
+            assertEquals(String.valueOf(expected), iterator.next().getId());
+            expected++;
+        }
+        assertEquals(50, expected);
+        assertEquals(50, iterator.getTotalHits());
+
+        final SearchAfterIterator descending =
+                SearchAfterIterator.builder(client, client.prepareSearch(index).setSize(10).addSort("value", SortOrder.DESC).request())
+                        .build();
+        try (final Stream<SearchHit> stream = descending.stream()) {
+            assertEquals(Arrays.asList("49", "48", "47"), stream.limit(3).map(SearchHit::getId).collect(Collectors.toList()));
+        }
+
+        assertThrows(ElasticsearchException.class, () -> SearchAfterIterator.builder(client, client.prepareSearch(index).request()).build());
+    }
+
+    @Test
+    void test_iterator_shard_failures() throws Exception {
+        final String keywordIndex = "test_iterator_shard_failures_keyword";
+        final String longIndex = "test_iterator_shard_failures_long";
+        client.admin().indices().prepareCreate(keywordIndex)
+                .addMapping("_doc", "{\"properties\":{\"code\":{\"type\":\"keyword\"}}}", XContentType.JSON).execute().actionGet();
+        client.admin().indices().prepareCreate(longIndex)
+                .addMapping("_doc", "{\"properties\":{\"code\":{\"type\":\"long\"}}}", XContentType.JSON).execute().actionGet();
+        final BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+        for (int i = 0; i < 10; i++) {
+            bulkRequestBuilder.add(client.prepareIndex(keywordIndex, "_doc", String.valueOf(i)).setSource(
+                    "{\"code\":\"abc\",\"value\":" + i + "}", XContentType.JSON));
+            bulkRequestBuilder.add(client.prepareIndex(longIndex, "_doc", String.valueOf(i)).setSource(
+                    "{\"code\":" + i + ",\"value\":" + i + "}", XContentType.JSON));
+        }
+        bulkRequestBuilder.setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+
+        // the term query cannot be parsed on the long field, so the shards of longIndex fail
+        final SearchAfterIterator failing =
+                SearchAfterIterator.builder(
+                        client,
+                        client.prepareSearch(keywordIndex, longIndex).setQuery(QueryBuilders.termQuery("code", "abc")).setSize(3)
+                                .addSort("value", SortOrder.ASC).request()).build();
+        assertThrows(ElasticsearchException.class, failing::hasNext);
+
+        final SearchAfterIterator partial =
+                SearchAfterIterator
+                        .builder(
+                                client,
+                                client.prepareSearch(keywordIndex, longIndex).setQuery(QueryBuilders.termQuery("code", "abc")).setSize(3)
+                                        .addSort("value", SortOrder.ASC).request()).setAllowPartialResults(true).build();
+        int count = 0;
+        while (partial.hasNext()) {
+            assertEquals(String.valueOf(count), partial.next().getId());
+            count++;
+        }
+        assertEquals(10, count);
+
+        final ScrollIterator scrollFailing =
+                ScrollIterator
+                        .builder(
+                                client,
+                                client.prepareSearch(keywordIndex, longIndex).setQuery(QueryBuilders.termQuery("code", "abc")).setSize(3)
+                                        .request()).build();
+        assertThrows(ElasticsearchException.class, scrollFailing::hasNext);
+        scrollFailing.close();
+
+        final ScrollIterator scrollPartial =
+                ScrollIterator
+                        .builder(
+                                client,
+                                client.prepareSearch(keywordIndex, longIndex).setQuery(QueryBuilders.termQuery("code", "abc")).setSize(3)
+                                        .request()).setAllowPartialResults(true).build();
+        try (final Stream<SearchHit> stream = scrollPartial.stream()) {
+            assertEquals(10, stream.count());
+        }
+    }
+
+    @Test
+    void test_streaming_search() throws Exception {
+        final String index = "test_streaming_search";
+        final BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+        for (int i = 0; i < 30; i++) {
+            bulkRequestBuilder.add(client.prepareIndex(index, "_doc", String.valueOf(i)).setSource("{\"value\":" + i + "}",
+                    XContentType.JSON));
+        }
+        bulkRequestBuilder.setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+
+        final HttpSearchAction searchAction = new HttpSearchAction(client, SearchAction.INSTANCE);
+        final List<SearchHit> hits = new ArrayList<>();
+        final PlainActionFuture<SearchResponse> future = PlainActionFuture.newFuture();
+        searchAction.execute(
+                client.prepareSearch(index).setSize(30).addSort("value", SortOrder.ASC)
+                        .addAggregation(AggregationBuilders.max("max_value").field("value")).request(), hits::add, future);
+        final SearchResponse response = future.actionGet();
+        assertEquals(30, hits.size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(String.valueOf(i), hits.get(i).getId());
+            assertEquals(i, hits.get(i).getSourceAsMap().get("value"));
+        }
+        assertEquals(0, response.getHits().getHits().length);
+        assertEquals(30, response.getHits().getTotalHits().value);
+        assertEquals(29.0, ((Max) response.getAggregations().get("max_value")).getValue());
+        assertEquals(response.getTotalShards(), response.getSuccessfulShards());
+
+        final PlainActionFuture<SearchResponse> failed = PlainActionFuture.newFuture();
+        searchAction.execute(client.prepareSearch(index).request(), hit -> {
+            throw new IllegalStateException("stop");
+        }, failed);
+        assertEquals("stop", assertThrows(IllegalStateException.class, () -> failed.actionGet()).getMessage());
+    }
+
+    @Test
+    void test_lazy_source() throws Exception {
+        final String index = "test_lazy_source";
+        final BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+        for (int i = 0; i < 10; i++) {
+            bulkRequestBuilder.add(client.prepareIndex(index, "_doc", String.valueOf(i)).setSource(
+                    "{\"value\":" + i + ",\"text\":\"\\u3042 \\\"quoted\\\" {_source} " + i + "\",\"nested\":{\"a\":\"}\",\"b\":[1,2]}}",
+                    XContentType.JSON));
+        }
+        bulkRequestBuilder.setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+
+        final Settings settings = Settings.builder().putList("http.hosts", "localhost:9201").put("http.lazy_source", true).build();
+        try (final HttpClient lazyClient = new HttpClient(settings, null)) {
+            final SearchResponse expected = client.prepareSearch(index).setSize(10).addSort("value", SortOrder.ASC).execute().actionGet();
+            final SearchResponse actual = lazyClient.prepareSearch(index).setSize(10).addSort("value", SortOrder.ASC).execute().actionGet();
+            assertEquals(10, actual.getHits().getHits().length);
+            assertEquals(expected.getHits().getTotalHits().value, actual.getHits().getTotalHits().value);
+            for (int i = 0; i < 10; i++) {
+                final SearchHit expectedHit = expected.getHits().getHits()[i];
+                final SearchHit actualHit = actual.getHits().getHits()[i];
+                assertEquals(expectedHit.getId(), actualHit.getId());
+                assertEquals(expectedHit.getIndex(), actualHit.getIndex());
+                assertEquals(expectedHit.getSortValues()[0], actualHit.getSortValues()[0]);
+                assertEquals(expectedHit.getSourceAsMap(), actualHit.getSourceAsMap());
+            }
+
+            final SearchResponse noSource = lazyClient.prepareSearch(index).setFetchSource(false).execute().actionGet();
+            assertEquals(10, noSource.getHits().getHits().length);
+            assertFalse(noSource.getHits().getHits()[0].hasSource());
+
+            final GetResponse getResponse = lazyClient.prepareGet(index, "_doc", "3").execute().actionGet();
+            assertTrue(getResponse.isExists());
+            assertEquals(1, getResponse.getVersion());
+            assertEquals(client.prepareGet(index, "_doc", "3").execute().actionGet().getSource(), getResponse.getSource());
+            assertFalse(lazyClient.prepareGet(index, "_doc", "100").execute().actionGet().isExists());
+            assertThrows(ElasticsearchException.class, () -> lazyClient.prepareGet("test_lazy_source_missing", "_doc", "1").execute()
+                    .actionGet());
+        }
+    }
+
+    @Test
+    void test_decoded_source() throws Exception {
+        final String index = "test_decoded_source";
+        final BulkRequestBuilder bulkRequestBuilder = client.prepareBulk();
+        for (int i = 0; i < 20; i++) {
+            bulkRequestBuilder.add(client.prepareIndex(index, "_doc", String.valueOf(i)).setSource(
+                    "{\"value\":" + i + ",\"text\":\"text " + i + "\",\"tags\":[\"a\",\"b\"],\"meta\":{\"x\":1}}", XContentType.JSON));
+        }
+        bulkRequestBuilder.setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+
+        final SourceDecoder<Doc> decoder = parser -> {
+            final Doc doc = new Doc();
+            String currentFieldName = null;
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                } else if ("value".equals(currentFieldName)) {
+                    doc.value = parser.intValue();
+                } else if ("text".equals(currentFieldName)) {
+                    doc.text = parser.text();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return doc;
+        };
+
+        final List<DecodedHit<Doc>> hits = new ArrayList<>();
+        final PlainActionFuture<SearchResponse> future = PlainActionFuture.newFuture();
+        client.search(client.prepareSearch(index).setSize(20).addSort("value", SortOrder.ASC).request(), decoder, hits::add, future);
+        assertEquals(20, future.actionGet().getHits().getTotalHits().value);
+        assertEquals(20, hits.size());
+        for (int i = 0; i < 20; i++) {
+            final DecodedHit<Doc> hit = hits.get(i);
+            assertEquals(String.valueOf(i), hit.getId());
+            assertEquals(i, hit.getSource().value);
+            assertEquals("text " + i, hit.getSource().text);
+            assertFalse(hit.getHit().hasSource());
+        }
+
+        final PlainActionFuture<Doc> getFuture = PlainActionFuture.newFuture();
+        client.get(new GetRequest(index, "7"), decoder, getFuture);
+        assertEquals(7, getFuture.actionGet().value);
+        final PlainActionFuture<Doc> missingFuture = PlainActionFuture.newFuture();
+        client.get(new GetRequest(index, "100"), decoder, missingFuture);
+        assertNull(missingFuture.actionGet());
+    }
+
+    static class Doc {
+        int value;
+
+        String text;
+    }
+
+    @Test
+    void test_response_projection() throws Exception {
+        final String index = "test_response_projection";
+        final Settings settings = Settings.builder().putList("http.hosts", "localhost:9201").put("http.response_projection", true).build();
+        try (final HttpClient projectionClient = new HttpClient(settings, null)) {
+            final IndexResponse indexResponse =
+                    projectionClient.prepareIndex(index, "_doc", "1").setSource("{\"value\":1}", XContentType.JSON)
+                            .setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+            assertEquals(Result.CREATED, indexResponse.getResult());
+            assertEquals("1", indexResponse.getId());
+            assertEquals(index, indexResponse.getIndex());
+            assertEquals(1, indexResponse.getVersion());
+            assertNotNull(indexResponse.getShardInfo());
+
+            final BulkRequestBuilder bulkRequestBuilder = projectionClient.prepareBulk();
+            for (int i = 2; i <= 10; i++) {
+                bulkRequestBuilder.add(projectionClient.prepareIndex(index, "_doc", String.valueOf(i)).setSource("{\"value\":" + i + "}",
+                        XContentType.JSON));
+            }
+            bulkRequestBuilder.add(projectionClient.prepareUpdate(index, "_doc", "100").setDoc("{\"value\":100}", XContentType.JSON));
+            final BulkResponse bulkResponse = bulkRequestBuilder.setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+            assertTrue(bulkResponse.hasFailures());
+            assertEquals(10, bulkResponse.getItems().length);
+            assertEquals("2", bulkResponse.getItems()[0].getId());
+            assertEquals(Result.CREATED, bulkResponse.getItems()[0].getResponse().getResult());
+            assertEquals(RestStatus.NOT_FOUND, bulkResponse.getItems()[9].getFailure().getStatus());
+
+            final UpdateResponse updateResponse =
+                    projectionClient.prepareUpdate(index, "_doc", "1").setDoc("{\"value\":11}", XContentType.JSON).setFetchSource(true)
+                            .execute().actionGet();
+            assertEquals(Result.UPDATED, updateResponse.getResult());
+            assertEquals(11, updateResponse.getGetResult().sourceAsMap().get("value"));
+
+            final DeleteResponse deleteResponse =
+                    projectionClient.prepareDelete(index, "_doc", "10").setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+            assertEquals(Result.DELETED, deleteResponse.getResult());
+
+            final SearchResponse searchResponse =
+                    projectionClient.prepareSearch(index).setSize(5).addSort("value", SortOrder.ASC)
+                            .addAggregation(AggregationBuilders.max("max_value").field("value")).execute().actionGet();
+            assertEquals(9, searchResponse.getHits().getTotalHits().value);
+            assertEquals(5, searchResponse.getHits().getHits().length);
+            assertEquals("2", searchResponse.getHits().getHits()[0].getId());
+            assertEquals(2, searchResponse.getHits().getHits()[0].getSourceAsMap().get("value"));
+            assertEquals(11.0, ((Max) searchResponse.getAggregations().get("max_value")).getValue());
+            assertEquals(0, searchResponse.getFailedShards());
+            assertTrue(searchResponse.getTotalShards() > 0);
+            assertEquals(searchResponse.getTotalShards(), searchResponse.getSuccessfulShards());
+
+            final SearchResponse scrollResponse =
+                    projectionClient
+                            .prepareSearchScroll(
+                                    projectionClient.prepareSearch(index).setSize(4).setScroll(TimeValue.timeValueMinutes(1)).execute()
+                                            .actionGet().getScrollId()).setScroll(TimeValue.timeValueMinutes(1)).execute().actionGet();
+            assertEquals(4, scrollResponse.getHits().getHits().length);
+            assertTrue(scrollResponse.getTotalShards() > 0);
+            assertEquals(scrollResponse.getTotalShards(), scrollResponse.getSuccessfulShards());
+            projectionClient.prepareClearScroll().addScrollId(scrollResponse.getScrollId()).execute().actionGet();
+
+            final Set<String> ids = new HashSet<>();
+            final ScrollIterator iterator =
+                    ScrollIterator.builder(projectionClient, projectionClient.prepareSearch(index).setSize(4).request()).build();
+            iterator.forEachRemaining(hit -> ids.add(hit.getId()));
+            assertEquals(9, ids.size());
+
+            final SearchResponse empty =
+                    projectionClient.prepareSearch(index).setQuery(QueryBuilders.termQuery("value", -1)).execute().actionGet();
+            assertEquals(0, empty.getHits().getHits().length);
+            assertEquals(0, empty.getHits().getTotalHits().value);
+
+            assertThrows(ElasticsearchException.class, () -> projectionClient.prepareSearch("test_response_projection_missing").execute()
+                    .actionGet());
+        }
+
+        final Settings overrideSettings =
+                Settings.builder().putList("http.hosts", "localhost:9201").put("http.filter_path.search", "hits.total,hits.hits._id")
+                        .build();
+        try (final HttpClient overrideClient = new HttpClient(overrideSettings, null)) {
+            final SearchResponse searchResponse = overrideClient.prepareSearch(index).setSize(20).execute().actionGet();
+            assertEquals(9, searchResponse.getHits().getHits().length);
+            assertFalse(searchResponse.getHits().getHits()[0].hasSource());
+        }
+    }
+
+    @Test
+    void test_wire_format() throws Exception {
+        for (final String format : new String[] { "smile", "cbor" }) {
+            final String index = "test_wire_format_" + format;
+            final Settings settings =
+                    Settings.builder().putList("http.hosts", "localhost:9201").put("http.content_type", format)
+                            .put("http.lazy_source", true).build();
+            try (final HttpClient formatClient = new HttpClient(settings, null)) {
+                assertEquals(format, formatClient.getWireFormat().getXContentType().shortName());
+
+                final IndexResponse indexResponse =
+                        formatClient.prepareIndex(index, "_doc", "1").setSource("{\"value\":1,\"text\":\"aaa\"}", XContentType.JSON)
+                                .setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+                assertEquals(Result.CREATED, indexResponse.getResult());
+                formatClient.prepareIndex(index, "_doc", "2")
+                        .setSource(XContentFactory.smileBuilder().startObject().field("value", 2).field("text", "bbb").endObject())
+                        .setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+
+                final UpdateResponse updateResponse =
+                        formatClient.prepareUpdate(index, "_doc", "1").setDoc("{\"text\":\"ccc\"}", XContentType.JSON)
+                                .setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+                assertEquals(Result.UPDATED, updateResponse.getResult());
+
+                final GetResponse getResponse = formatClient.prepareGet(index, "_doc", "1").execute().actionGet();
+                assertEquals("ccc", getResponse.getSourceAsMap().get("text"));
+                assertEquals(1, getResponse.getSourceAsMap().get("value"));
+
+                final SearchResponse searchResponse =
+                        formatClient.prepareSearch(index).setQuery(QueryBuilders.rangeQuery("value").gte(1))
+                                .addSort("value", SortOrder.ASC).addAggregation(AggregationBuilders.max("max_value").field("value"))
+                                .execute().actionGet();
+                assertEquals(2, searchResponse.getHits().getTotalHits().value);
+                assertEquals("1", searchResponse.getHits().getHits()[0].getId());
+                assertEquals("bbb", searchResponse.getHits().getHits()[1].getSourceAsMap().get("text"));
+                assertEquals(2.0, ((Max) searchResponse.getAggregations().get("max_value")).getValue());
+
+                final List<String> texts = new ArrayList<>();
+                final PlainActionFuture<SearchResponse> future = PlainActionFuture.newFuture();
+                formatClient.search(formatClient.prepareSearch(index).addSort("value", SortOrder.ASC).request(), parser -> {
+                    final Doc doc = new Doc();
+                    XContentParser.Token token;
+                    String name = null;
+                    while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                        if (token == XContentParser.Token.FIELD_NAME) {
+                            name = parser.currentName();
+                        } else if ("text".equals(name)) {
+                            doc.text = parser.text();
+                        }
+                    }
+                    return doc;
+                }, hit -> texts.add(hit.getSource().text), future);
+                assertEquals(2, future.actionGet().getHits().getTotalHits().value);
+                assertEquals(Arrays.asList("ccc", "bbb"), texts);
+
+                final BulkResponse bulkResponse =
+                        formatClient.prepareBulk()
+                                .add(formatClient.prepareIndex(index, "_doc", "3").setSource("{\"value\":3}", XContentType.JSON))
+                                .setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+                assertFalse(bulkResponse.hasFailures());
+
+                final ElasticsearchStatusException e =
+                        assertThrows(ElasticsearchStatusException.class, () -> formatClient.prepareSearch(index + "_missing").execute()
+                                .actionGet());
+                assertEquals(RestStatus.NOT_FOUND, e.status());
+            }
+        }
+
+        final Settings invalidSettings =
+                Settings.builder().putList("http.hosts", "localhost:9201").put("http.content_type", "yaml").build();
+        assertThrows(ElasticsearchException.class, () -> new HttpClient(invalidSettings, null));
+    }
+
+    private void assertScrollCleared(final String scrollId) throws InterruptedException {
+        assertNotNull(scrollId);
+        for (int i = 0; i < 50; i++) {
+            try {
+                client.prepareSearchScroll(scrollId).setScroll(TimeValue.timeValueSeconds(30)).execute().actionGet();
+            } catch (final Exception e) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        fail("The scroll is not cleared: " + scrollId);
+    }
+
     @Test
     void test_multi_search() throws Exception {
         final SearchRequestBuilder srb1 = client.prepareSearch().setQuery(QueryBuilders.queryStringQuery("word")).setSize(1);
@@ -1334,6 +1853,1042 @@ public class HttpClientTest {
         }
     }
 
+    @Test
+    void test_source_formats() throws Exception {
+        final String index = "test_source_formats";
+        final BulkResponse bulkResponse =
+                client.prepareBulk()
+                        .add(client.prepareIndex(index, "_doc", "1").setSource("{\"value\":1}", XContentType.JSON))
+                        .add(client.prepareIndex(index, "_doc", "2").setSource("{\n  \"value\" : 2\n}", XContentType.JSON))
+                        .add(client.prepareIndex(index, "_doc", "3").setSource(
+                                XContentFactory.smileBuilder().startObject().field("value", 3).endObject()))
+                        .setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+        assertFalse(bulkResponse.hasFailures());
+        final IndexResponse indexResponse =
+                client.prepareIndex(index, "_doc", "4").setSource("value: 4\n", XContentType.YAML)
+                        .setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+        assertEquals(RestStatus.CREATED, indexResponse.status());
+        for (int i = 1; i <= 4; i++) {
+            final GetResponse getResponse = client.prepareGet(index, "_doc", String.valueOf(i)).execute().actionGet();
+            assertEquals(i, getResponse.getSource().get("value"));
+        }
+    }
+
+    @Test
+    void test_bulk_processor() throws Exception {
+        final String index = "test_bulk_processor";
+        final AtomicInteger before = new AtomicInteger();
+        final AtomicInteger items = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final HttpBulkProcessor processor = HttpBulkProcessor.builder(client, new HttpBulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(final long executionId, final BulkRequest request) {
+                before.incrementAndGet();
+            }
+
+            @Override
+            public void afterBulk(final long executionId, final BulkRequest request, final BulkResponse response) {
+                items.addAndGet(response.getItems().length);
+            }
+
+            @Override
+            public void afterBulk(final long executionId, final BulkRequest request, final Throwable failure) {
+                failure.printStackTrace();
+                failures.incrementAndGet();
+            }
+        }).setBulkActions(10).setConcurrentRequests(2).setFlushInterval(TimeValue.timeValueSeconds(1)).build();
+        for (int i = 0; i < 25; i++) {
+            processor.add(new IndexRequest(index).id(String.valueOf(i)).source("{\"value\":" + i + "}", XContentType.JSON));
+        }
+        assertTrue(processor.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(3, before.get());
+        assertEquals(25, items.get());
+        assertEquals(0, failures.get());
+        client.admin().indices().prepareRefresh(index).execute().actionGet();
+        final SearchResponse searchResponse = client.prepareSearch(index).setQuery(QueryBuilders.matchAllQuery()).execute().actionGet();
+        assertEquals(25, searchResponse.getHits().getTotalHits().value);
+    }
+
+    @Test
+    void test_bulk_update_coalescing() throws Exception {
+        final String index = "test_bulk_update_coalescing";
+        client.prepareIndex(index, "_doc", "1").setSource("{\"count\":0,\"user\":{\"name\":\"a\"}}", XContentType.JSON)
+                .setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger failures = new AtomicInteger();
+        final HttpBulkProcessor.Listener listener = new HttpBulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(final long executionId, final BulkRequest request) {
+                batchSizes.add(request.numberOfActions());
+            }
+
+            @Override
+            public void afterBulk(final long executionId, final BulkRequest request, final BulkResponse response) {
+                if (response.hasFailures()) {
+                    failures.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void afterBulk(final long executionId, final BulkRequest request, final Throwable failure) {
+                failures.incrementAndGet();
+            }
+        };
+
+        final HttpBulkProcessor processor =
+                HttpBulkProcessor.builder(client, listener).setUpdateCoalescing(true).setRefreshPolicy(RefreshPolicy.IMMEDIATE).build();
+        for (int i = 1; i <= 5; i++) {
+            processor.add(new UpdateRequest(index, "1").doc("{\"count\":" + i + ",\"user\":{\"age" + i + "\":" + i + "}}",
+                    XContentType.JSON));
+        }
+        processor.add(new IndexRequest(index).id("2").source("{\"count\":0}", XContentType.JSON));
+        processor.add(new UpdateRequest(index, "2").doc("{\"count\":1}", XContentType.JSON));
+        processor.add(new UpdateRequest(index, "2").doc("{\"count\":2}", XContentType.JSON));
+        assertTrue(processor.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(3), batchSizes);
+        assertEquals(0, failures.get());
+        final Map<String, Object> source = client.prepareGet(index, "_doc", "1").execute().actionGet().getSource();
+        assertEquals(5, source.get("count"));
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> user = (Map<String, Object>) source.get("user");
+        assertEquals("a", user.get("name"));
+        assertEquals(6, user.size());
+        assertEquals(2, client.prepareGet(index, "_doc", "2").execute().actionGet().getSource().get("count"));
+
+        batchSizes.clear();
+        final HttpBulkProcessor sumProcessor =
+                HttpBulkProcessor
+                        .builder(client, listener)
+                        .setUpdateMerger(
+                                (current, next) -> {
+                                    final int count =
+                                            (Integer) current.doc().sourceAsMap().get("count")
+                                                    + (Integer) next.doc().sourceAsMap().get("count");
+                                    return new UpdateRequest(current.index(), current.id()).doc("{\"count\":" + count + "}",
+                                            XContentType.JSON).docAsUpsert(current.docAsUpsert() || next.docAsUpsert());
+                                }).setRefreshPolicy(RefreshPolicy.IMMEDIATE).build();
+        for (int i = 0; i < 10; i++) {
+            sumProcessor.add(new UpdateRequest(index, "3").doc("{\"count\":1}", XContentType.JSON).docAsUpsert(i == 0));
+        }
+        assertTrue(sumProcessor.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(1), batchSizes);
+        assertEquals(0, failures.get());
+        assertEquals(10, client.prepareGet(index, "_doc", "3").execute().actionGet().getSource().get("count"));
+
+        // merged documents count toward the bulk size
+        batchSizes.clear();
+        final HttpBulkProcessor sizeProcessor =
+                HttpBulkProcessor.builder(client, listener).setUpdateCoalescing(true).setBulkActions(-1)
+                        .setBulkSize(new ByteSizeValue(200, ByteSizeUnit.BYTES)).setRefreshPolicy(RefreshPolicy.IMMEDIATE).build();
+        for (int i = 0; i < 10; i++) {
+            sizeProcessor.add(new UpdateRequest(index, "4").doc(
+                    "{\"field" + i + "\":\"" + String.join("", Collections.nCopies(40, "x")) + "\"}", XContentType.JSON).docAsUpsert(true));
+        }
+        assertTrue(sizeProcessor.awaitClose(30, TimeUnit.SECONDS));
+        assertTrue(batchSizes.size() > 1, batchSizes.toString());
+        assertEquals(0, failures.get());
+        assertEquals(10, client.prepareGet(index, "_doc", "4").execute().actionGet().getSource().size());
+
+        // the last upsert wins for a missing document
+        batchSizes.clear();
+        final HttpBulkProcessor upsertProcessor =
+                HttpBulkProcessor.builder(client, listener).setUpdateCoalescing(true).setRefreshPolicy(RefreshPolicy.IMMEDIATE).build();
+        upsertProcessor.add(new UpdateRequest(index, "5").doc("{\"count\":1}", XContentType.JSON).upsert(
+                "{\"count\":1,\"from\":\"first\"}", XContentType.JSON));
+        upsertProcessor.add(new UpdateRequest(index, "5").doc("{\"count\":2}", XContentType.JSON).upsert(
+                "{\"count\":2,\"from\":\"second\"}", XContentType.JSON));
+        assertTrue(upsertProcessor.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(1), batchSizes);
+        assertEquals(0, failures.get());
+        final Map<String, Object> upserted = client.prepareGet(index, "_doc", "5").execute().actionGet().getSource();
+        assertEquals(2, upserted.get("count"));
+        assertEquals("second", upserted.get("from"));
+    }
+
+    @Test
+    void test_adaptive_bulk_processor() throws Exception {
+        final String index = "test_adaptive_bulk_processor";
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger items = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final HttpBulkProcessor processor =
+                HttpBulkProcessor.builder(client, new HttpBulkProcessor.Listener() {
+                    @Override
+                    public void beforeBulk(final long executionId, final BulkRequest request) {
+                        batchSizes.add(request.numberOfActions());
+                    }
+
+                    @Override
+                    public void afterBulk(final long executionId, final BulkRequest request, final BulkResponse response) {
+                        items.addAndGet(response.getItems().length);
+                    }
+
+                    @Override
+                    public void afterBulk(final long executionId, final BulkRequest request, final Throwable failure) {
+                        failures.incrementAndGet();
+                    }
+                }).setBulkActions(-1).setBulkSize(new ByteSizeValue(256)).setConcurrentRequests(0)
+                        .setAdaptiveBulkSize(new ByteSizeValue(256), new ByteSizeValue(8, ByteSizeUnit.KB))
+                        .setTargetLatency(TimeValue.timeValueSeconds(10)).build();
+        for (int i = 0; i < 500; i++) {
+            processor.add(new IndexRequest(index).id(String.valueOf(i)).source("{\"value\":" + i + "}", XContentType.JSON));
+        }
+        assertTrue(processor.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(500, items.get());
+        assertEquals(0, failures.get());
+        assertTrue(batchSizes.get(batchSizes.size() - 2) > batchSizes.get(0) * 4, batchSizes.toString());
+
+        final AtomicInteger concurrentItems = new AtomicInteger();
+        final HttpBulkProcessor concurrentProcessor =
+                HttpBulkProcessor.builder(client, new HttpBulkProcessor.Listener() {
+                    @Override
+                    public void beforeBulk(final long executionId, final BulkRequest request) {
+                    }
+
+                    @Override
+                    public void afterBulk(final long executionId, final BulkRequest request, final BulkResponse response) {
+                        concurrentItems.addAndGet(response.getItems().length);
+                    }
+
+                    @Override
+                    public void afterBulk(final long executionId, final BulkRequest request, final Throwable failure) {
+                        failures.incrementAndGet();
+                    }
+                }).setBulkActions(-1).setBulkSize(new ByteSizeValue(256)).setConcurrentRequests(1).setMaxConcurrentRequests(4)
+                        .setAdaptiveBulkSize(new ByteSizeValue(256), new ByteSizeValue(8, ByteSizeUnit.KB)).build();
+        for (int i = 500; i < 1000; i++) {
+            concurrentProcessor.add(new IndexRequest(index).id(String.valueOf(i)).source("{\"value\":" + i + "}", XContentType.JSON));
+        }
+        assertTrue(concurrentProcessor.awaitClose(30, TimeUnit.SECONDS));
+        assertEquals(500, concurrentItems.get());
+        assertEquals(0, failures.get());
+        client.admin().indices().prepareRefresh(index).execute().actionGet();
+        final SearchResponse searchResponse = client.prepareSearch(index).setSize(0).execute().actionGet();
+        assertEquals(1000, searchResponse.getHits().getTotalHits().value);
+    }
+
+    @Test
+    void test_ndjson_bulk_loader() throws Exception {
+        loadNdjson(client, "test_ndjson_bulk_loader");
+    }
+
+    private void loadNdjson(final HttpClient httpClient, final String index) throws Exception {
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            buf.append("{\"index\":{\"_id\":\"").append(i).append("\"}}\n{\"value\":").append(i).append("}\n");
+        }
+        buf.append("\n{\"delete\":{\"_id\":\"0\"}}\n");
+        buf.append("{ \"update\" : {\"_id\":\"1\"}}\n{\"doc\":{\"value\":100}}\n");
+        buf.append("{\"create\":{\"_index\":\"").append(index).append("\",\"_id\":\"x\"}}\n{\"value\":-1}");
+        final Path path = Files.createTempFile("bulk", ".ndjson");
+        try {
+            Files.write(path, buf.toString().getBytes(StandardCharsets.UTF_8));
+            final AtomicInteger before = new AtomicInteger();
+            final AtomicLong length = new AtomicLong();
+            final AtomicInteger items = new AtomicInteger();
+            final AtomicInteger failures = new AtomicInteger();
+            NdjsonBulkLoader.builder(httpClient, new NdjsonBulkLoader.Listener() {
+                @Override
+                public void beforeBulk(final long executionId, final long offset, final long size) {
+                    before.incrementAndGet();
+                    length.addAndGet(size);
+                }
+
+                @Override
+                public void afterBulk(final long executionId, final long offset, final long size, final BulkResponse response) {
+                    items.addAndGet(response.getItems().length);
+                    if (response.hasFailures()) {
+                        failures.incrementAndGet();
+                    }
+                }
+
+                @Override
+                public void afterBulk(final long executionId, final long offset, final long size, final Throwable failure) {
+                    failure.printStackTrace();
+                    failures.incrementAndGet();
+                }
+            }).setIndex(index).setBulkSize(new ByteSizeValue(100)).setConcurrentRequests(3).setRefreshPolicy(RefreshPolicy.IMMEDIATE)
+                    .build().load(path);
+            assertTrue(before.get() > 10);
+            assertEquals(Files.size(path), length.get());
+            assertEquals(53, items.get());
+            assertEquals(0, failures.get());
+        } finally {
+            Files.delete(path);
+        }
+        final SearchResponse searchResponse = httpClient.prepareSearch(index).setSize(0).execute().actionGet();
+        assertEquals(50, searchResponse.getHits().getTotalHits().value);
+        assertFalse(httpClient.prepareGet(index, "_doc", "0").execute().actionGet().isExists());
+        assertEquals(100, httpClient.prepareGet(index, "_doc", "1").execute().actionGet().getSource().get("value"));
+    }
+
+    @Test
+    void test_bulk_spool() throws Exception {
+        final String index = "test_bulk_spool";
+        final Path spoolDir = Files.createTempDirectory("spool");
+        final AtomicInteger spooled = new AtomicInteger();
+        final AtomicInteger drained = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final HttpBulkProcessor.Listener listener = new HttpBulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(final long executionId, final BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(final long executionId, final BulkRequest request, final BulkResponse response) {
+            }
+
+            @Override
+            public void afterBulk(final long executionId, final BulkRequest request, final Throwable failure) {
+                failures.incrementAndGet();
+            }
+
+            @Override
+            public void afterSpool(final long executionId, final BulkRequest request) {
+                spooled.addAndGet(request.numberOfActions());
+            }
+
+            @Override
+            public void afterSpooledBulk(final long executionId, final BulkResponse response) {
+                drained.addAndGet(response.getItems().length);
+            }
+        };
+        try {
+            final Settings settings = Settings.builder().putList("http.hosts", "localhost:9299").build();
+            try (final HttpClient deadClient = new HttpClient(settings, null)) {
+                final HttpBulkProcessor processor =
+                        HttpBulkProcessor.builder(deadClient, listener).setBulkActions(10)
+                                .setSpool(spoolDir, new ByteSizeValue(1, ByteSizeUnit.MB))
+                                .setSpoolSegmentSize(new ByteSizeValue(1, ByteSizeUnit.KB)).build();
+                for (int i = 0; i < 35; i++) {
+                    processor.add(new IndexRequest(index).id(String.valueOf(i)).source("{\"value\":" + i + "}", XContentType.JSON));
+                }
+                assertTrue(processor.awaitClose(30, TimeUnit.SECONDS));
+            }
+            assertEquals(35, spooled.get());
+            assertEquals(0, failures.get());
+            try (final Stream<Path> stream = Files.list(spoolDir)) {
+                assertTrue(stream.filter(p -> p.getFileName().toString().startsWith("segment-")).count() > 1);
+            }
+            // a record torn by a crash
+            try (final Stream<Path> stream = Files.list(spoolDir)) {
+                final Path last = stream.filter(p -> p.getFileName().toString().startsWith("segment-")).sorted().reduce((a, b) -> b).get();
+                Files.write(last, new byte[] { 0, 0, 1, 0, 1, 2, 3 }, StandardOpenOption.APPEND);
+            }
+
+            final HttpBulkProcessor processor =
+                    HttpBulkProcessor.builder(client, listener).setBulkActions(10).setRefreshPolicy(RefreshPolicy.IMMEDIATE)
+                            .setSpool(spoolDir, new ByteSizeValue(1, ByteSizeUnit.MB))
+                            .setSpoolDrainInterval(TimeValue.timeValueMillis(100)).build();
+            for (int i = 0; i < 100 && drained.get() < 35; i++) {
+                Thread.sleep(100);
+            }
+            processor.add(new IndexRequest(index).id("35").source("{\"value\":35}", XContentType.JSON));
+            assertTrue(processor.awaitClose(30, TimeUnit.SECONDS));
+            assertEquals(35, drained.get());
+            assertEquals(0, failures.get());
+            final SearchResponse searchResponse = client.prepareSearch(index).setSize(0).execute().actionGet();
+            assertEquals(36, searchResponse.getHits().getTotalHits().value);
+        } finally {
+            try (final Stream<Path> stream = Files.walk(spoolDir)) {
+                stream.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    void test_bulk_spool_malformed_response() throws Exception {
+        final Path spoolDir = Files.createTempDirectory("spool");
+        final AtomicInteger spooled = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final HttpBulkProcessor.Listener listener = new HttpBulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(final long executionId, final BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(final long executionId, final BulkRequest request, final BulkResponse response) {
+            }
+
+            @Override
+            public void afterBulk(final long executionId, final BulkRequest request, final Throwable t) {
+                failure.set(t);
+            }
+
+            @Override
+            public void afterSpool(final long executionId, final BulkRequest request) {
+                spooled.addAndGet(request.numberOfActions());
+            }
+        };
+        try {
+            final Settings settings =
+                    Settings.builder().putList("http.hosts", "localhost:9201")
+                            .put("http.transport.type", MalformedBulkTransport.class.getName()).build();
+            try (final HttpClient malformedClient = new HttpClient(settings, null)) {
+                final HttpBulkProcessor processor =
+                        HttpBulkProcessor.builder(malformedClient, listener).setBulkActions(10)
+                                .setSpool(spoolDir, new ByteSizeValue(1, ByteSizeUnit.MB)).setSpoolSync(false).build();
+                for (int i = 0; i < 10; i++) {
+                    processor.add(new IndexRequest("test_bulk_spool_malformed_response").id(String.valueOf(i)).source(
+                            "{\"value\":" + i + "}", XContentType.JSON));
+                }
+                assertTrue(processor.awaitClose(30, TimeUnit.SECONDS));
+            }
+            // a response that cannot be parsed does not mean the cluster is unavailable
+            assertEquals(0, spooled.get());
+            assertNotNull(failure.get());
+        } finally {
+            try (final Stream<Path> stream = Files.walk(spoolDir)) {
+                stream.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    // answers every bulk request with a truncated body
+    public static class MalformedBulkTransport implements HttpTransport {
+
+        protected final HttpTransport delegate;
+
+        public MalformedBulkTransport(final HttpClient client, final Settings settings) {
+            delegate = new CurlTransport(client.getExecutor());
+        }
+
+        @Override
+        public void execute(final HttpCurlRequest request, final Consumer<CurlResponse> actionListener,
+                final Consumer<Exception> exceptionListener) {
+            if (!request.path().endsWith("/_bulk")) {
+                delegate.execute(request, actionListener, exceptionListener);
+                return;
+            }
+            final CurlResponse response = new CurlResponse();
+            response.setEncoding("UTF-8");
+            response.setHttpStatusCode(200);
+            response.setHeaders(Collections.singletonMap("Content-Type", Collections.singletonList("application/json; charset=UTF-8")));
+            response.setContentCache(new ContentCache("{\"took\":1,\"errors\":false,\"items\":[{\"index\":"
+                    .getBytes(StandardCharsets.UTF_8)));
+            actionListener.accept(response);
+        }
+    }
+
+    @Test
+    void test_bulk_failure_and_throw() throws Exception {
+        final AtomicInteger afterBulk = new AtomicInteger();
+        final HttpBulkProcessor.Listener listener = new HttpBulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(final long executionId, final BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(final long executionId, final BulkRequest request, final BulkResponse response) {
+                afterBulk.incrementAndGet();
+            }
+
+            @Override
+            public void afterBulk(final long executionId, final BulkRequest request, final Throwable t) {
+                afterBulk.incrementAndGet();
+            }
+        };
+        final Settings settings =
+                Settings.builder().putList("http.hosts", "localhost:9201").put("http.transport.type", FailingBulkTransport.class.getName())
+                        .build();
+        try (final HttpClient failingClient = new HttpClient(settings, null)) {
+            final HttpBulkProcessor processor =
+                    HttpBulkProcessor.builder(failingClient, listener).setBulkActions(5).setConcurrentRequests(0).build();
+            for (int i = 0; i < 5; i++) {
+                processor.add(new IndexRequest("test_bulk_failure_and_throw").id(String.valueOf(i)).source("{\"value\":" + i + "}",
+                        XContentType.JSON));
+            }
+            assertTrue(processor.awaitClose(30, TimeUnit.SECONDS));
+        }
+        // the failure is reported once even though the transport also throws
+        assertEquals(1, afterBulk.get());
+    }
+
+    // fails every bulk request, and then throws from the same call
+    public static class FailingBulkTransport implements HttpTransport {
+
+        protected final HttpTransport delegate;
+
+        public FailingBulkTransport(final HttpClient client, final Settings settings) {
+            delegate = new CurlTransport(client.getExecutor());
+        }
+
+        @Override
+        public void execute(final HttpCurlRequest request, final Consumer<CurlResponse> actionListener,
+                final Consumer<Exception> exceptionListener) {
+            if (!request.path().endsWith("/_bulk")) {
+                delegate.execute(request, actionListener, exceptionListener);
+                return;
+            }
+            exceptionListener.accept(new IOException("Connection reset"));
+            throw new IllegalStateException("Failed after notifying the listener.");
+        }
+    }
+
+    @Test
+    void test_bulk_retry() throws Exception {
+        final String index = "test_bulk_retry";
+        final Settings settings = Settings.builder().putList("http.hosts", "localhost:9201").put("http.bulk.retry.max_retries", 3).build();
+        try (final HttpClient retryClient = new HttpClient(settings, null)) {
+            final BulkResponse bulkResponse =
+                    retryClient
+                            .prepareBulk()
+                            .add(retryClient.prepareIndex(index, "_doc", "1").setSource("{\"value\":1}", XContentType.JSON))
+                            .add(retryClient.prepareIndex(index, "_doc", "1").setCreate(true).setSource("{\"value\":1}", XContentType.JSON))
+                            .add(retryClient.prepareIndex(index, "_doc", "2").setSource("{\"value\":2}", XContentType.JSON)).execute()
+                            .actionGet();
+            assertTrue(bulkResponse.hasFailures());
+            assertEquals(3, bulkResponse.getItems().length);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(i, bulkResponse.getItems()[i].getItemId());
+            }
+            assertFalse(bulkResponse.getItems()[0].isFailed());
+            assertEquals(RestStatus.CONFLICT, bulkResponse.getItems()[1].getFailure().getStatus());
+            assertEquals("2", bulkResponse.getItems()[2].getId());
+        }
+    }
+
+    @Test
+    void test_bulk_retry_rejected_items() throws Exception {
+        final String index = "test_bulk_retry_rejected_items";
+        final Settings settings =
+                Settings.builder().putList("http.hosts", "localhost:9201").put("http.transport.type", RejectingTransport.class.getName())
+                        .put("http.compression", false).put("http.bulk.retry.max_retries", 3)
+                        .put("http.bulk.retry.initial_backoff", "10ms").build();
+        try (final HttpClient retryClient = new HttpClient(settings, null)) {
+            final RejectingTransport transport = (RejectingTransport) retryClient.getTransport();
+            final BulkResponse bulkResponse = indexWithRejections(retryClient, index);
+            assertFalse(bulkResponse.hasFailures());
+            assertEquals(5, bulkResponse.getItems().length);
+            for (int i = 0; i < 5; i++) {
+                assertEquals(i, bulkResponse.getItems()[i].getItemId());
+                assertEquals(String.valueOf(i), bulkResponse.getItems()[i].getId());
+            }
+            // the rejected items were sent again, and nothing else
+            assertEquals(1, bulkResponse.getItems()[0].getVersion());
+            assertEquals(2, bulkResponse.getItems()[1].getVersion());
+            assertEquals(1, bulkResponse.getItems()[2].getVersion());
+            assertEquals(2, bulkResponse.getItems()[3].getVersion());
+            assertEquals(Arrays.asList(5, 2), transport.bulkSizes);
+        }
+
+        final Settings budgetSettings =
+                Settings.builder().put(settings).put("http.bulk.retry.budget.ratio", 0).put("http.bulk.retry.budget.max_tokens", 1).build();
+        try (final HttpClient retryClient = new HttpClient(budgetSettings, null)) {
+            final RejectingTransport transport = (RejectingTransport) retryClient.getTransport();
+            final BulkResponse bulkResponse = indexWithRejections(retryClient, index + "_budget");
+            assertTrue(bulkResponse.hasFailures());
+            assertEquals(5, bulkResponse.getItems().length);
+            for (int i = 0; i < 5; i++) {
+                assertEquals(i, bulkResponse.getItems()[i].getItemId());
+            }
+            assertFalse(bulkResponse.getItems()[1].isFailed());
+            assertEquals(RestStatus.TOO_MANY_REQUESTS, bulkResponse.getItems()[3].getFailure().getStatus());
+            assertEquals(Arrays.asList(5, 1), transport.bulkSizes);
+            assertEquals(0, retryClient.getBulkRetryBudget().getTokens());
+        }
+    }
+
+    @Test
+    void test_bulk_retry_flush_interval() throws Exception {
+        final String index = "test_bulk_retry_flush_interval";
+        final Settings settings =
+                Settings.builder().putList("http.hosts", "localhost:9201").put("http.transport.type", RejectingTransport.class.getName())
+                        .put("http.compression", false).put("http.bulk.retry.max_retries", 3)
+                        .put("http.bulk.retry.initial_backoff", "10ms").build();
+        try (final HttpClient retryClient = new HttpClient(settings, null)) {
+            final RejectingTransport transport = (RejectingTransport) retryClient.getTransport();
+            final AtomicReference<BulkResponse> result = new AtomicReference<>();
+            final CountDownLatch latch = new CountDownLatch(1);
+            final HttpBulkProcessor processor =
+                    HttpBulkProcessor.builder(retryClient, new HttpBulkProcessor.Listener() {
+                        @Override
+                        public void beforeBulk(final long executionId, final BulkRequest request) {
+                        }
+
+                        @Override
+                        public void afterBulk(final long executionId, final BulkRequest request, final BulkResponse response) {
+                            result.set(response);
+                            latch.countDown();
+                        }
+
+                        @Override
+                        public void afterBulk(final long executionId, final BulkRequest request, final Throwable failure) {
+                            latch.countDown();
+                        }
+                    }).setBulkActions(-1).setBulkSize(new ByteSizeValue(-1)).setConcurrentRequests(0)
+                            .setFlushInterval(TimeValue.timeValueMillis(100)).build();
+            for (int i = 0; i < 5; i++) {
+                processor.add(new IndexRequest(index).id(String.valueOf(i)).source("{\"value\":" + i + "}", XContentType.JSON));
+            }
+            // the flush must not hold the scheduler thread that runs the retry
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+            assertTrue(processor.awaitClose(30, TimeUnit.SECONDS));
+            assertNotNull(result.get());
+            assertFalse(result.get().hasFailures());
+            assertEquals(Arrays.asList(5, 2), transport.bulkSizes);
+        }
+    }
+
+    private BulkResponse indexWithRejections(final HttpClient retryClient, final String index) {
+        final BulkRequestBuilder builder = retryClient.prepareBulk();
+        for (int i = 0; i < 5; i++) {
+            builder.add(retryClient.prepareIndex(index, "_doc", String.valueOf(i)).setSource("{\"value\":" + i + "}", XContentType.JSON));
+        }
+        return builder.execute().actionGet();
+    }
+
+    // rejects the items 1 and 3 of the first bulk response, as a saturated write thread pool does
+    public static class RejectingTransport implements HttpTransport {
+
+        protected final HttpTransport delegate;
+
+        protected final AtomicInteger bulkCount = new AtomicInteger();
+
+        protected final List<Integer> bulkSizes = Collections.synchronizedList(new ArrayList<>());
+
+        public RejectingTransport(final HttpClient client, final Settings settings) {
+            delegate = new CurlTransport(client.getExecutor());
+        }
+
+        @Override
+        public void execute(final HttpCurlRequest request, final Consumer<CurlResponse> actionListener,
+                final Consumer<Exception> exceptionListener) {
+            if (!request.path().endsWith("/_bulk")) {
+                delegate.execute(request, actionListener, exceptionListener);
+                return;
+            }
+            final boolean first = bulkCount.getAndIncrement() == 0;
+            delegate.execute(request, response -> {
+                try {
+                    actionListener.accept(rewrite(response, first));
+                } catch (final IOException e) {
+                    exceptionListener.accept(e);
+                }
+            }, exceptionListener);
+        }
+
+        @SuppressWarnings("unchecked")
+        protected CurlResponse rewrite(final CurlResponse response, final boolean reject) throws IOException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (final InputStream in = response.getContentAsStream()) {
+                Streams.copy(in, out);
+            }
+            final Map<String, Object> map = XContentHelper.convertToMap(new BytesArray(out.toByteArray()), false, XContentType.JSON).v2();
+            final List<Map<String, Object>> items = (List<Map<String, Object>>) map.get("items");
+            bulkSizes.add(items.size());
+            if (reject) {
+                for (final int i : new int[] { 1, 3 }) {
+                    final Map<String, Object> item = (Map<String, Object>) items.get(i).get("index");
+                    final Map<String, Object> error = new HashMap<>();
+                    error.put("type", "es_rejected_execution_exception");
+                    error.put("reason", "rejected execution of coordinating operation");
+                    final Map<String, Object> rejected = new HashMap<>();
+                    rejected.put("_index", item.get("_index"));
+                    rejected.put("_type", item.get("_type"));
+                    rejected.put("_id", item.get("_id"));
+                    rejected.put("status", 429);
+                    rejected.put("error", error);
+                    items.set(i, Collections.singletonMap("index", rejected));
+                }
+                map.put("errors", true);
+            }
+            final CurlResponse curlResponse = new CurlResponse();
+            curlResponse.setEncoding("UTF-8");
+            curlResponse.setHttpStatusCode(response.getHttpStatusCode());
+            curlResponse.setHeaders(Collections.singletonMap("Content-Type", Collections.singletonList("application/json; charset=UTF-8")));
+            curlResponse.setContentCache(new ContentCache(BytesReference.toBytes(BytesReference.bytes(XContentFactory.jsonBuilder()
+                    .map(map)))));
+            return curlResponse;
+        }
+    }
+
+    @Test
+    void test_parallel_bulk_serialization() throws Exception {
+        final String index = "test_parallel_bulk_serialization";
+        final Settings settings =
+                Settings.builder().putList("http.hosts", "localhost:9201").put("http.bulk.serialization.chunk_size", 7).build();
+        try (final HttpClient parallelClient = new HttpClient(settings, null)) {
+            final BulkRequestBuilder builder = parallelClient.prepareBulk();
+            for (int i = 0; i < 100; i++) {
+                builder.add(parallelClient.prepareIndex(index, "_doc", String.valueOf(i)).setSource("{\"value\":" + i + "}",
+                        XContentType.JSON));
+            }
+            builder.add(parallelClient.prepareUpdate(index, "_doc", "0").setDoc("{\"value\":100}", XContentType.JSON));
+            builder.add(parallelClient.prepareDelete(index, "_doc", "1"));
+            final BulkResponse bulkResponse = builder.setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+            assertFalse(bulkResponse.hasFailures());
+            assertEquals(102, bulkResponse.getItems().length);
+            for (int i = 0; i < 100; i++) {
+                assertEquals(String.valueOf(i), bulkResponse.getItems()[i].getId());
+            }
+            assertEquals(DocWriteRequest.OpType.UPDATE, bulkResponse.getItems()[100].getOpType());
+            assertEquals(DocWriteRequest.OpType.DELETE, bulkResponse.getItems()[101].getOpType());
+
+            final SearchResponse searchResponse = parallelClient.prepareSearch(index).setSize(0).execute().actionGet();
+            assertEquals(99, searchResponse.getHits().getTotalHits().value);
+            final GetResponse getResponse = parallelClient.prepareGet(index, "_doc", "0").execute().actionGet();
+            assertEquals(100, getResponse.getSource().get("value"));
+        }
+    }
+
+    @Test
+    void test_bulk_shard_routing() throws Exception {
+        final String index = "test_bulk_shard_routing";
+        client.admin().indices().prepareCreate(index)
+                .setSettings(Settings.builder().put("index.number_of_shards", 3).put("index.number_of_replicas", 0)).execute().actionGet();
+        runner.ensureYellow(index);
+
+        final ClusterSearchShardsResponse shardsResponse = client.admin().cluster().prepareSearchShards(index).execute().actionGet();
+        assertEquals(3, shardsResponse.getGroups().length);
+        assertEquals(1, shardsResponse.getNodes().length);
+        for (final ClusterSearchShardsGroup group : shardsResponse.getGroups()) {
+            assertEquals(index, group.getShardId().getIndexName());
+            assertTrue(group.getShards()[0].primary());
+            assertEquals(shardsResponse.getNodes()[0].getId(), group.getShards()[0].currentNodeId());
+        }
+
+        final Settings settings =
+                Settings.builder().putList("http.hosts", "localhost:9201").put("http.bulk.shard_routing.enabled", true).build();
+        try (final HttpClient routingClient = new HttpClient(settings, null)) {
+            final BulkResponse bulkResponse =
+                    routingClient
+                            .prepareBulk()
+                            .add(routingClient.prepareIndex(index, "_doc", "1").setSource("{\"value\":1}", XContentType.JSON))
+                            .add(routingClient.prepareIndex(index, "_doc").setSource("{\"value\":2}", XContentType.JSON))
+                            .add(routingClient.prepareIndex(index, "_doc", "3").setRouting("r")
+                                    .setSource("{\"value\":3}", XContentType.JSON)).add(routingClient.prepareDelete(index, "_doc", "4"))
+                            .setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+            assertEquals(4, bulkResponse.getItems().length);
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i, bulkResponse.getItems()[i].getItemId());
+            }
+            assertFalse(bulkResponse.getItems()[0].isFailed());
+            assertEquals("1", bulkResponse.getItems()[0].getId());
+            assertFalse(bulkResponse.getItems()[1].isFailed());
+            assertEquals("3", bulkResponse.getItems()[2].getId());
+            assertEquals(RestStatus.NOT_FOUND, bulkResponse.getItems()[3].status());
+
+            final GetResponse getResponse = routingClient.prepareGet(index, "_doc", "3").setRouting("r").execute().actionGet();
+            assertTrue(getResponse.isExists());
+
+            // the shard computed on the client matches the one of the cluster
+            final BulkShardRouter router = routingClient.getBulkShardRouter();
+            final Set<Integer> shardIds = new HashSet<>();
+            for (int i = 0; i < 30; i++) {
+                final String id = "doc" + i;
+                final int shardId = router.getShardId(index, id, null);
+                assertEquals(getShardId(index, id), shardId, id);
+                shardIds.add(shardId);
+            }
+            assertEquals(3, shardIds.size());
+            assertEquals(getShardId(index, "r"), router.getShardId(index, "3", "r"));
+
+            final Host nodeHost = routingClient.findHost("http://localhost:9298");
+            assertSame(nodeHost, routingClient.findHost("http://localhost:9298"));
+            assertTrue(routingClient.isAvailable(nodeHost));
+            routingClient.onHostFailure(nodeHost);
+            assertSame(nodeHost, routingClient.findHost("http://localhost:9298"));
+            assertFalse(routingClient.isAvailable(nodeHost));
+        }
+    }
+
+    private int getShardId(final String index, final String routing) {
+        final ClusterSearchShardsResponse response =
+                client.admin().cluster().prepareSearchShards(index).setRouting(routing).execute().actionGet();
+        assertEquals(1, response.getGroups().length);
+        return response.getGroups()[0].getShardId().id();
+    }
+
+    @Test
+    void test_bulk_failures_only() throws Exception {
+        final String index = "test_bulk_failures_only";
+        final Settings settings =
+                Settings.builder().putList("http.hosts", "localhost:9201").put("http.bulk.failures_only", true)
+                        .put("http.bulk.retry.max_retries", 2).build();
+        try (final HttpClient compactClient = new HttpClient(settings, null)) {
+            final BulkResponse successResponse =
+                    compactClient.prepareBulk()
+                            .add(compactClient.prepareIndex(index, "_doc", "1").setSource("{\"value\":1}", XContentType.JSON))
+                            .add(compactClient.prepareIndex(index, "_doc", "2").setSource("{\"value\":2}", XContentType.JSON)).execute()
+                            .actionGet();
+            assertFalse(successResponse.hasFailures());
+            assertEquals(0, successResponse.getItems().length);
+            assertTrue(successResponse.getTook().millis() >= 0);
+
+            final BulkResponse bulkResponse =
+                    compactClient
+                            .prepareBulk()
+                            .add(compactClient.prepareIndex(index, "_doc", "3").setSource("{\"value\":3}", XContentType.JSON))
+                            .add(compactClient.prepareIndex(index, "_doc", "1").setCreate(true)
+                                    .setSource("{\"value\":1}", XContentType.JSON)).add(compactClient.prepareDelete(index, "_doc", "2"))
+                            .execute().actionGet();
+            assertTrue(bulkResponse.hasFailures());
+            assertEquals(1, bulkResponse.getItems().length);
+            final BulkItemResponse item = bulkResponse.getItems()[0];
+            assertEquals(1, item.getItemId());
+            assertEquals(DocWriteRequest.OpType.CREATE, item.getOpType());
+            assertEquals(index, item.getIndex());
+            assertEquals("1", item.getId());
+            assertEquals(RestStatus.CONFLICT, item.getFailure().getStatus());
+            assertTrue(item.getFailureMessage().contains("version_conflict_engine_exception"));
+        }
+    }
+
+    @Test
+    void test_host_selector() throws Exception {
+        final String index = "test_host_selector";
+        for (final String type : new String[] { "round_robin", "least_active", "weighted" }) {
+            final Settings settings =
+                    Settings.builder().putList("http.hosts", "localhost:9201", "127.0.0.1:9201").putList("http.host_weights", "1", "3")
+                            .put("http.host_selector", type).build();
+            try (final HttpClient hostClient = new HttpClient(settings, null)) {
+                final Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+                hostClient.addRequestBuilder(request -> {
+                    counts.computeIfAbsent(((HttpCurlRequest) request).host().getUrl(), k -> new AtomicInteger()).incrementAndGet();
+                    return request;
+                });
+                for (int i = 0; i < 4; i++) {
+                    final IndexResponse indexResponse =
+                            hostClient.prepareIndex(index, "_doc", type + i).setRefreshPolicy(RefreshPolicy.IMMEDIATE)
+                                    .setSource("{\"selector\":\"" + type + "\"}", XContentType.JSON).execute().actionGet();
+                    assertEquals(RestStatus.CREATED, indexResponse.status());
+                }
+                final SearchResponse searchResponse =
+                        hostClient.prepareSearch(index).setQuery(QueryBuilders.termQuery("selector", type)).execute().actionGet();
+                assertEquals(4, searchResponse.getHits().getTotalHits().value);
+                for (int i = 0; i < 95; i++) {
+                    assertTrue(hostClient.prepareGet(index, "_doc", type + (i % 4)).execute().actionGet().isExists());
+                }
+
+                final int first = counts.get("http://localhost:9201").get();
+                final int second = counts.get("http://127.0.0.1:9201").get();
+                assertEquals(100, first + second);
+                if ("weighted".equals(type)) {
+                    assertTrue(second > first * 2, counts.toString());
+                } else {
+                    // sequential requests have no active ones to compare, so both rotate
+                    assertEquals(50, first, counts.toString());
+                }
+
+                // a synchronous request is tracked while it runs
+                final Host host = hostClient.hosts.get(0);
+                final AtomicInteger active = new AtomicInteger(-1);
+                final CurlRequest request = hostClient.getCurlRequest(host, Method.GET, HttpClient.ContentType.JSON, "/");
+                request.onConnect((req, con) -> active.set(host.getActiveRequests()));
+                try (final CurlResponse response = request.execute()) {
+                    assertEquals(200, response.getHttpStatusCode());
+                }
+                assertEquals(1, active.get());
+                assertEquals(0, host.getActiveRequests());
+            }
+        }
+    }
+
+    @Test
+    void test_dead_host() throws Exception {
+        final String index = "test_dead_host";
+        final Settings settings = Settings.builder().putList("http.hosts", "localhost:9299", "localhost:9201").build();
+        try (final HttpClient hostClient = new HttpClient(settings, null)) {
+            for (int i = 0; i < 4; i++) {
+                final IndexResponse indexResponse =
+                        hostClient.prepareIndex(index, "_doc", String.valueOf(i)).setRefreshPolicy(RefreshPolicy.IMMEDIATE)
+                                .setSource("{\"value\":" + i + "}", XContentType.JSON).execute().actionGet();
+                assertEquals(RestStatus.CREATED, indexResponse.status());
+            }
+            for (int i = 0; i < 4; i++) {
+                final GetResponse getResponse = hostClient.prepareGet(index, "_doc", String.valueOf(i)).execute().actionGet();
+                assertTrue(getResponse.isExists());
+            }
+            assertEquals(1, hostClient.hosts.get(0).getFailures());
+            assertFalse(hostClient.hosts.get(0).isAlive(System.nanoTime()));
+            assertTrue(hostClient.hosts.get(1).isAlive(System.nanoTime()));
+        }
+    }
+
+    @Test
+    void test_dead_host_backoff() throws Exception {
+        final Host host = new Host("http://localhost:9299");
+        final long initial = TimeUnit.SECONDS.toNanos(1);
+        final long max = TimeUnit.SECONDS.toNanos(8);
+        final long now = System.nanoTime();
+        // in-flight requests failing in the same outage
+        for (int i = 0; i < 10; i++) {
+            host.markDead(now + i, initial, max);
+        }
+        assertEquals(1, host.getFailures());
+        assertEquals(now + initial, host.getDeadUntil());
+        assertFalse(host.tryProbe(now + initial - 1, initial));
+
+        final long expired = now + initial;
+        assertTrue(host.tryProbe(expired, initial));
+        assertFalse(host.tryProbe(expired, initial));
+        assertFalse(host.isAlive(expired));
+        // the probe fails
+        assertEquals(initial * 2, host.markDead(expired + 1, initial, max));
+        assertEquals(2, host.getFailures());
+        host.markDead(expired + 2, initial, max);
+        assertEquals(2, host.getFailures());
+
+        // the probe never reports back
+        final long lost = expired + 1 + initial * 2;
+        assertTrue(host.tryProbe(lost, initial));
+        assertFalse(host.tryProbe(lost + initial - 1, initial));
+        assertTrue(host.tryProbe(lost + initial, initial));
+
+        assertTrue(host.markAlive());
+        assertEquals(0, host.getFailures());
+        assertTrue(host.isAlive(lost));
+        assertFalse(host.tryProbe(lost, initial));
+    }
+
+    @Test
+    @DisabledOnJre({ JRE.JAVA_8, JRE.JAVA_9, JRE.JAVA_10 })
+    void test_body_write_failure() throws Exception {
+        for (final String type : new String[] { "curl", "jdk" }) {
+            final Settings settings =
+                    Settings.builder().putList("http.hosts", "localhost:9201", "127.0.0.1:9201").put("http.transport.type", type).build();
+            try (final HttpClient hostClient = new HttpClient(settings, null)) {
+                final AtomicInteger attempts = new AtomicInteger();
+                final AtomicReference<Exception> failure = new AtomicReference<>();
+                final CountDownLatch latch = new CountDownLatch(1);
+                // PUT is idempotent, so a host failure would be retried on the other host
+                ((HttpCurlRequest) hostClient.getCurlRequest(Method.PUT, "/_doc/1", "test_body_write_failure")).body(out -> {
+                    attempts.incrementAndGet();
+                    out.write("{\"value\":".getBytes(StandardCharsets.UTF_8));
+                    throw new IOException("Invalid source.");
+                }).execute(response -> {
+                    latch.countDown();
+                }, e -> {
+                    failure.set(e);
+                    latch.countDown();
+                });
+                latch.await();
+                assertTrue(failure.get().getCause() instanceof BodyWriteException, type);
+                assertEquals(1, attempts.get());
+                final long now = System.nanoTime();
+                for (final Host host : hostClient.getHosts()) {
+                    assertEquals(0, host.getFailures());
+                    assertTrue(host.isAlive(now));
+                }
+                assertFalse(hostClient.admin().indices().prepareExists("test_body_write_failure").execute().actionGet().isExists());
+            }
+        }
+    }
+
+    @Test
+    void test_index_malformed_source() throws Exception {
+        final String index = "test_index_malformed_source";
+        final Settings settings = Settings.builder().putList("http.hosts", "localhost:9201", "127.0.0.1:9201").build();
+        try (final HttpClient hostClient = new HttpClient(settings, null)) {
+            final byte[] malformed = new byte[] { ':', ')', '\n', 0x01, 0x7f, (byte) 0xfe };
+            final ElasticsearchException e =
+                    assertThrows(ElasticsearchException.class,
+                            () -> hostClient.prepareIndex(index, "_doc", "1").setSource(malformed, XContentType.SMILE).execute()
+                                    .actionGet());
+            assertEquals("Failed to parse a request.", e.getMessage());
+            final long now = System.nanoTime();
+            for (final Host host : hostClient.getHosts()) {
+                assertEquals(0, host.getFailures());
+                assertTrue(host.isAlive(now));
+            }
+            final IndexResponse indexResponse =
+                    hostClient.prepareIndex(index, "_doc", "1").setSource("{\"value\":1}", XContentType.JSON)
+                            .setRefreshPolicy(RefreshPolicy.IMMEDIATE).execute().actionGet();
+            assertEquals(RestStatus.CREATED, indexResponse.status());
+        }
+    }
+
+    @Test
+    void test_sniffer() throws Exception {
+        final Settings settings =
+                Settings.builder().putList("http.hosts", "localhost:9299", "localhost:9201").put("http.sniffer.enabled", true).build();
+        try (final HttpClient hostClient = new HttpClient(settings, null)) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            hostClient.hostSniffer.sniff(wrap(res -> {
+                assertEquals(1, res.size());
+                latch.countDown();
+            }, e -> {
+                e.printStackTrace();
+                try {
+                    fail();
+                } finally {
+                    latch.countDown();
+                }
+            }));
+            latch.await();
+            assertEquals(1, hostClient.getHosts().size());
+            assertTrue(hostClient.getHosts().get(0).getUrl().endsWith(":9201"));
+            final ClusterHealthResponse healthResponse = hostClient.admin().cluster().prepareHealth().execute().actionGet();
+            assertEquals(clusterName, healthResponse.getClusterName());
+        }
+    }
+
+    @Test
+    @DisabledOnJre({ JRE.JAVA_8, JRE.JAVA_9, JRE.JAVA_10 })
+    void test_jdk_transport() throws Exception {
+        final String index = "test_jdk_transport";
+        final Settings settings =
+                Settings.builder().putList("http.hosts", "localhost:9299", "localhost:9201").put("http.transport.type", "jdk").build();
+        try (final HttpClient jdkClient = new HttpClient(settings, null)) {
+            for (int i = 0; i < 4; i++) {
+                final IndexResponse indexResponse =
+                        jdkClient.prepareIndex(index, "_doc", String.valueOf(i)).setRefreshPolicy(RefreshPolicy.IMMEDIATE)
+                                .setSource("{\"value\":" + i + "}", XContentType.JSON).execute().actionGet();
+                assertEquals(RestStatus.CREATED, indexResponse.status());
+            }
+            final GetResponse getResponse = jdkClient.prepareGet(index, "_doc", "1").execute().actionGet();
+            assertTrue(getResponse.isExists());
+            final SearchResponse searchResponse =
+                    jdkClient.prepareSearch(index).setQuery(QueryBuilders.matchAllQuery()).execute().actionGet();
+            assertEquals(4, searchResponse.getHits().getTotalHits().value);
+            final IndicesExistsResponse existsResponse = jdkClient.admin().indices().prepareExists(index).execute().actionGet();
+            assertTrue(existsResponse.isExists());
+            assertTrue(jdkClient.getTransport().getClass().getSimpleName().startsWith("Jdk"));
+            loadNdjson(jdkClient, index + "_ndjson");
+        }
+    }
+
+    @Test
+    @DisabledOnJre({ JRE.JAVA_8, JRE.JAVA_9, JRE.JAVA_10 })
+    void test_http2_transport() throws Exception {
+        final Settings settings =
+                Settings.builder().putList("http.hosts", "localhost:9201").put("http.transport.type", "jdk")
+                        .put("http.transport.version", "2").build();
+        try (final HttpClient jdkClient = new HttpClient(settings, null)) {
+            final CountDownLatch latch = new CountDownLatch(10);
+            for (int i = 0; i < 10; i++) {
+                jdkClient.prepareSearch().setQuery(QueryBuilders.matchAllQuery()).execute(wrap(res -> {
+                    assertEquals(RestStatus.OK, res.status());
+                    latch.countDown();
+                }, e -> {
+                    e.printStackTrace();
+                    try {
+                        fail();
+                    } finally {
+                        latch.countDown();
+                    }
+                }));
+            }
+            latch.await();
+        }
+    }
+
+    @Test
+    void test_virtual_thread_pool() throws Exception {
+        final Settings settings =
+                Settings.builder().putList("http.hosts", "localhost:9201").put("thread_pool.http.type", "virtual").build();
+        final boolean supported = Stream.of(Thread.class.getMethods()).anyMatch(m -> "ofVirtual".equals(m.getName()));
+        if (!supported) {
+            assertThrows(ElasticsearchException.class, () -> new HttpClient(settings, null));
+            return;
+        }
+        try (final HttpClient vtClient = new HttpClient(settings, null)) {
+            final ClusterHealthResponse healthResponse = vtClient.admin().cluster().prepareHealth().execute().actionGet();
+            assertEquals(clusterName, healthResponse.getClusterName());
+        }
+    }
+
     // TODO PutIndexTemplateAction
     // TODO GetIndexTemplatesAction
     // TODO DeleteIndexTemplateAction